@@ -1,28 +1,79 @@
 package gitlet;
 
 import static gitlet.Utils.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class Blob implements Serializable{
 
+    /** Same as the implicit UID of the old serialized blobs, so they can still be read. */
+    private static final long serialVersionUID = -5142010674593554883L;
+
+    /** Type tag written at the front of every blob object, followed by the length and a NUL. */
+    private static final String HEADER_TAG = "blob ";
+
+    /** Type tag of a large blob stored as a list of chunks, see ChunkStore. */
+    private static final String CHUNKED_TAG = "chunks ";
+
+    /** First two bytes of a Java serialization stream, marks the old blob format. */
+    private static final int SERIAL_MAGIC = 0xACED;
+
+    /** Contents of the blobs recently read, up to 32MB of them. */
+    private static final LruCache<String, byte[]> CACHE =
+        new LruCache<>(32L << 20, contents -> contents.length);
+
+    /** Size of the chunks files are hashed and saved in, so no file is ever held whole. */
+    private static final int CHUNK = 1 << 16;
+
     private String hash; //blobID
-    private byte[] fileContents; //contents stored in blob
-    private File filename;  //the file in working directory
-    private File blobFileName;   // the blob file stored under object directory
+    private byte[] fileContents; //contents of blobs saved in the old serialized format only
+    private transient File filename;  //the file in working directory
+    private transient File blobFileName;   // the blob file stored under object directory
 
+    /** The blob of FILENAME. The file is hashed a chunk at a time, not read into memory. */
     public Blob(File filename) {
         this.filename = filename;
-        fileContents = Utils.readContents(filename);
         hash = generateHash();
-        blobFileName = Utils.join(Repository.blobs, hash);
+        blobFileName = Repository.objectFile(Repository.blobs, hash);
 
     }
 
-    /**generate blob's sha1 code*/
+    /**generate blob's sha1 code, of the file's path followed by its contents*/
     private String generateHash() {
-        return Utils.sha1(filename.getPath(), fileContents);
+        try (FileChannel in = FileChannel.open(filename.toPath(), StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(filename.getPath().getBytes(StandardCharsets.UTF_8));
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+            while (in.read(chunk) >= 0) {
+                chunk.flip();
+                md.update(chunk);
+                chunk.clear();
+            }
+            return Utils.bytesToHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
     }
 
     /**get the blob's sha1 code*/
@@ -30,22 +81,219 @@ public class Blob implements Serializable{
         return hash;
     }
 
-    /** get the blob's contents*/
+    /** get the blob's contents, only kept by blobs read from the old serialized format*/
     public byte[] getContents() {
         return fileContents;
     }
 
 
-    /**Save the blob for future use*/
+    /**Save the blob for future use. Blobs are named by their contents, so an existing object is
+     * never rewritten. The object is the header and the file's bytes, deflate compressed. The file
+     * is copied a chunk at a time. Files at least ChunkStore.threshold() in size are stored as a
+     * list of chunks instead, so versions of a large file share their unchanged parts.
+     * The object is written to a temporary file and renamed into place once complete, so a
+     * failed save never leaves a partial blob behind, see Durable. */
     public void saveBlob() throws IOException {
         File currBlob = blobFileName;
-        currBlob.createNewFile();
-        writeObject(currBlob, this);
+        if (exists(hash)) {
+            return;
+        }
+        currBlob.getParentFile().mkdir();
+        File temp = Durable.tempFile();
+        try {
+            writeObject(temp);
+            Durable.install(temp, currBlob);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /** Write the blob object of the file to TEMP. */
+    private void writeObject(File temp) throws IOException {
+        try (FileChannel in = FileChannel.open(filename.toPath(), StandardOpenOption.READ);
+             OutputStream out = new DeflaterOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+            long size = in.size();
+            if (size >= ChunkStore.threshold()) {
+                out.write((CHUNKED_TAG + size + "\0").getBytes(StandardCharsets.UTF_8));
+                DataOutputStream list = new DataOutputStream(out);
+                if (ChunkStore.write(Channels.newInputStream(in), list) != size) {
+                    throw new IOException(filename + " changed while it was saved");
+                }
+                list.flush();
+                return;
+            }
+            out.write((HEADER_TAG + size + "\0").getBytes(StandardCharsets.UTF_8));
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+            long left = size;
+            while (left > 0) {
+                chunk.limit((int) Math.min(CHUNK, left));
+                int n = in.read(chunk);
+                if (n < 0) {
+                    throw new IOException(filename + " shrank while it was saved");
+                }
+                out.write(chunk.array(), 0, n);
+                left -= n;
+                chunk.clear();
+            }
+        }
     }
 
+    /** Return true if the blob with the given sha1 is saved, loose or packed. */
+    public static boolean exists(String blobID) {
+        return Repository.hasObject(Repository.blobs, blobID) || Pack.contains(blobID);
+    }
 
+    /** Return the contents of the blob with the given sha1, from the cache or read from
+     * objects/blobs. The array is shared with the cache, callers must not change it. */
+    public static byte[] readContents(String blobID) {
+        byte[] cached = CACHE.get(blobID);
+        if (cached != null) {
+            return cached;
+        }
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        try {
+            copyContents(blobID, contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] result = contents.toByteArray();
+        CACHE.put(blobID, result);
+        return result;
+    }
 
+    /** Return the cache of blob contents read by this process. */
+    static LruCache<String, byte[]> cache() {
+        return CACHE;
+    }
 
-}
+    /** Write the contents of the blob with the given sha1 to FILE, streaming them, so a blob of
+     * any size is checked out in constant memory. The bytes are written as they are, and the
+     * directories above FILE are made if they are missing. The file is written through its
+     * channel, a loose blob's bytes moved into it with transferFrom as they are inflated, never
+     * through a buffer of ours. Safe to call for many files at once. */
+    public static void writeTo(String blobID, File file) throws IOException {
+        Files.createDirectories(file.toPath().getParent());
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            copy(blobID, Channels.newOutputStream(out), out);
+        }
+    }
+
+    /** Return the size of the contents of the blob with the given sha1, reading only the header
+     * of a loose blob. */
+    public static long size(String blobID) throws IOException {
+        File blobFile = Repository.objectFile(Repository.blobs, blobID);
+        if (!blobFile.exists()) {
+            return readContents(blobID).length;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(blobFile))) {
+            in.mark(2);
+            int magic = (in.read() << 8) | in.read();
+            in.reset();
+            if (magic == SERIAL_MAGIC) {
+                return readObject(blobFile, Blob.class).getContents().length;
+            }
+            return headerLength(readHeader(new InflaterInputStream(in)));
+        }
+    }
+
+    /** Return true if the blob with the given sha1 is a loose blob stored as a list of chunks. */
+    public static boolean isChunked(String blobID) throws IOException {
+        File blobFile = Repository.objectFile(Repository.blobs, blobID);
+        if (!blobFile.exists()) {
+            return false;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(blobFile))) {
+            in.mark(2);
+            int magic = (in.read() << 8) | in.read();
+            in.reset();
+            return magic != SERIAL_MAGIC
+                && readHeader(new InflaterInputStream(in)).startsWith(CHUNKED_TAG);
+        }
+    }
+
+    /** Stream the contents of the blob with the given sha1 into OUT. Blobs written before the
+     * compressed format existed are still serialized Blob objects, they are read the old way.
+     * A blob with no loose object is read from the packs. */
+    public static void copyContents(String blobID, OutputStream out) throws IOException {
+        copy(blobID, out, null);
+    }
+
+    /** Stream the contents of the blob with the given sha1 into OUT, as copyContents does. If
+     * TARGET is not null, OUT writes to it, and the bytes of a loose blob are moved into TARGET
+     * with transferFrom instead. */
+    private static void copy(String blobID, OutputStream out, FileChannel target)
+        throws IOException {
+        File blobFile = Repository.objectFile(Repository.blobs, blobID);
+        if (!blobFile.exists()) {
+            byte[] packed = Pack.read(blobID);
+            if (packed == null) {
+                throw new IOException("No blob " + blobID);
+            }
+            out.write(packed);
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(blobFile))) {
+            in.mark(2);
+            int magic = (in.read() << 8) | in.read();
+            in.reset();
+            if (magic == SERIAL_MAGIC) {
+                out.write(readObject(blobFile, Blob.class).getContents());
+                return;
+            }
+            InputStream body = new InflaterInputStream(in);
+            String header = readHeader(body);
+            long length = headerLength(header);
+            long copied;
+            if (header.startsWith(CHUNKED_TAG)) {
+                copied = ChunkStore.copy(body, out);
+            } else if (target != null) {
+                copied = transfer(body, target, length);
+            } else {
+                copied = body.transferTo(out);
+            }
+            if (copied != length) {
+                throw new IOException("Corrupt blob " + blobID);
+            }
+        }
+    }
 
+    /** Move the bytes of IN into TARGET from its start with transferFrom, expecting LENGTH of
+     * them, and return how many IN had. */
+    private static long transfer(InputStream in, FileChannel target, long length)
+        throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        long position = 0;
+        while (position < length) {
+            long n = target.transferFrom(source, position, length - position);
+            if (n <= 0) {
+                break;
+            }
+            position += n;
+        }
+        return in.read() < 0 ? position : position + 1;
+    }
+
+    /** Read the "blob <length>\0" or "chunks <length>\0" header from IN and return it, without
+     * the NUL. */
+    private static String readHeader(InputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        int c;
+        while ((c = in.read()) > 0) {
+            header.append((char) c);
+        }
+        String result = header.toString();
+        if (c < 0 || !(result.startsWith(HEADER_TAG) || result.startsWith(CHUNKED_TAG))) {
+            throw new IOException("Bad blob header");
+        }
+        return result;
+    }
+
+    /** Return the length of the contents given in HEADER. */
+    private static long headerLength(String header) {
+        return Long.parseLong(header.substring(header.indexOf(' ') + 1));
+    }
+
+}
 
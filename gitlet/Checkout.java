@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Moves the working directory from the files of one commit to those of another, for checkout
+ *  of a branch and reset. The change set between the two is found first, with Diff.changes, which
+ *  for two commits skips every directory they share: those paths are deleted or written. Every
+ *  other file of the target is still checked, so a tracked file edited or deleted in the working
+ *  directory is put back too, but through the stage's stat cache, which only stats a file whose
+ *  stat data did not change. So switching between commits that differ in a few files writes just
+ *  those files, however many files the commits have.
+ *  Before anything is changed, every file the target adds is checked against the working
+ *  directory, and every blob to write is checked to be in the object store, so a checkout stopped
+ *  by an untracked file or a missing object leaves everything as it was. Then the removed files
+ *  are deleted, and the files to write written, in parallel, each streamed from the object store
+ *  straight into the file, see Blob.writeTo. A write that fails after that, on a full disk say,
+ *  leaves the working directory part way, with HEAD not moved yet; the same checkout run again
+ *  finishes it.
+ *  @author Susie
+ */
+class Checkout {
+
+    /** Change the working directory from the files FROM to the files TO, both maps from path
+     *  to blob id in path order, so that it has exactly the files TO tracks, as TO has them.
+     *  STAGE gives the blob ids of the working files, and its stat cache is updated. Aborts,
+     *  changing nothing, if a file only TO has is already in the working directory, untracked. */
+    static void run(Map<String, String> from, Map<String, String> to, Stage stage)
+        throws IOException {
+        List<Diff.Change> changes = Diff.changes(from, to);
+        Set<String> removed = new HashSet<>();
+        Map<String, String> writes = new TreeMap<>();
+        for (Diff.Change change : changes) {
+            if (change.newId == null) {
+                removed.add(change.path);
+            } else {
+                writes.put(change.path, change.newId);
+            }
+        }
+        for (Diff.Change change : changes) {
+            if (change.oldId == null && inTheWay(change.path, removed)) {
+                System.out.println("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
+                Utils.exit(0);
+            }
+        }
+
+        //the files both commits have the same are written only if their working copy differs
+        List<String> kept = new ArrayList<>();
+        List<String> keptIDs = new ArrayList<>();
+        for (Map.Entry<String, String> file : to.entrySet()) {
+            if (writes.containsKey(file.getKey())) {
+                continue;
+            }
+            if (Utils.join(Repository.CWD, file.getKey()).isFile()) {
+                kept.add(file.getKey());
+                keptIDs.add(file.getValue());
+            } else {
+                writes.put(file.getKey(), file.getValue());
+            }
+        }
+        List<String> workingIDs = stage.blobIDs(kept);
+        for (int i = 0; i < kept.size(); i++) {
+            if (!workingIDs.get(i).equals(keptIDs.get(i))) {
+                writes.put(kept.get(i), keptIDs.get(i));
+            }
+        }
+        for (String blobID : writes.values()) {
+            if (!Blob.exists(blobID)) {
+                throw new IllegalArgumentException("No blob " + blobID);
+            }
+        }
+
+        //deleted first, so a file that becomes a directory, or the other way, is out of the way
+        for (String path : removed) {
+            remove(path);
+        }
+        ParallelScan.map(new ArrayList<>(writes.keySet()), path -> {
+            Blob.writeTo(writes.get(path), Utils.join(Repository.CWD, path));
+            return null;
+        });
+    }
+
+    /** Return true if writing the file PATH would overwrite a file that is not tracked, once
+     *  the files REMOVED are deleted: PATH is a file, or a directory with files left in it, or
+     *  a directory above PATH is a file that stays. */
+    private static boolean inTheWay(String path, Set<String> removed) {
+        File file = Utils.join(Repository.CWD, path);
+        if (file.isFile()) {
+            return true;
+        }
+        if (file.isDirectory()) {
+            for (String inside : Repository.workingFiles(file, path + "/")) {
+                if (!removed.contains(inside)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            String dir = path.substring(0, slash);
+            if (Utils.join(Repository.CWD, dir).isFile() && !removed.contains(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Delete the file at PATH in the working directory, then the directories above it that are
+     *  left empty. */
+    static void remove(String path) {
+        File file = Utils.join(Repository.CWD, path);
+        if (!file.isDirectory()) {
+            file.delete();
+        }
+        File dir = file.getParentFile();
+        while (!dir.equals(Repository.CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** Stores large files as chunks under objects/chunks, named by the sha1 of their bytes, so the
+ *  versions of a file share the chunks they have in common. Chunk boundaries are found with a
+ *  rolling (gear) hash of the last bytes read, so they depend on the contents and not on the
+ *  offsets: an edit only changes the chunks around it. A chunked blob is the list of its chunks,
+ *  each entry the chunk's binary id and length.
+ *  Files at least the gitlet.chunkThreshold system property in size, or else the
+ *  GITLET_CHUNK_THRESHOLD environment variable, or else 8MB, are chunked. A threshold of 0 or
+ *  less turns chunking off.
+ *  @author Susie
+ */
+class ChunkStore {
+
+    /** Chunks are at least MIN_CHUNK bytes, at most MAX_CHUNK, and about 64KB on average. */
+    private static final int MIN_CHUNK = 16 << 10;
+    private static final int MAX_CHUNK = 256 << 10;
+
+    /** A boundary is where the top 16 bits of the rolling hash are all zero. */
+    private static final long BOUNDARY_MASK = 0xffffL << 48;
+
+    /** Default size from which files are chunked. */
+    private static final long DEFAULT_THRESHOLD = 8L << 20;
+
+    /** Random value of each byte for the rolling hash. The seed is fixed, since the chunks of a
+     *  file must come out the same every time. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Return the size from which files are chunked. */
+    static long threshold() {
+        String setting = System.getProperty("gitlet.chunkThreshold",
+            System.getenv("GITLET_CHUNK_THRESHOLD"));
+        if (setting != null) {
+            try {
+                long threshold = Long.parseLong(setting.trim());
+                return threshold > 0 ? threshold : Long.MAX_VALUE;
+            } catch (NumberFormatException excp) {
+                //fall back to the default
+            }
+        }
+        return DEFAULT_THRESHOLD;
+    }
+
+    /** Split the bytes of IN into chunks, save the chunks not saved yet, and write the chunk
+     *  list to LIST. Returns the number of bytes read. */
+    static long write(InputStream in, DataOutputStream list) throws IOException {
+        byte[] chunk = new byte[MAX_CHUNK];
+        byte[] buffer = new byte[1 << 16];
+        int length = 0;
+        long hash = 0;
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                int b = buffer[i] & 0xff;
+                chunk[length++] = (byte) b;
+                hash = (hash << 1) + GEAR[b];
+                if ((length >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0) || length == MAX_CHUNK) {
+                    saveChunk(chunk, length, list);
+                    length = 0;
+                    hash = 0;
+                }
+            }
+            total += n;
+        }
+        if (length > 0) {
+            saveChunk(chunk, length, list);
+        }
+        return total;
+    }
+
+    /** Stream the chunks named by the chunk list read from LIST into OUT, in order. Returns the
+     *  number of bytes written. */
+    static long copy(InputStream list, OutputStream out) throws IOException {
+        DataInputStream entries = new DataInputStream(list);
+        byte[] id = new byte[ID_SIZE];
+        long total = 0;
+        while (true) {
+            int first = entries.read();
+            if (first < 0) {
+                return total;
+            }
+            id[0] = (byte) first;
+            entries.readFully(id, 1, ID_SIZE - 1);
+            int length = entries.readInt();
+            File chunkFile = Repository.objectFile(Repository.chunks, bytesToHex(id));
+            try (InputStream in = new InflaterInputStream(
+                new BufferedInputStream(new FileInputStream(chunkFile)))) {
+                if (in.transferTo(out) != length) {
+                    throw new IOException("Corrupt chunk " + bytesToHex(id));
+                }
+            }
+            total += length;
+        }
+    }
+
+    /** Save the first LENGTH bytes of CHUNK unless a chunk with their sha1 is saved, and add the
+     *  chunk to LIST. */
+    private static void saveChunk(byte[] chunk, int length, DataOutputStream list)
+        throws IOException {
+        String id;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(chunk, 0, length);
+            id = bytesToHex(md.digest());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+        if (!Repository.hasObject(Repository.chunks, id)) {
+            File temp = Durable.tempFile();
+            try {
+                try (OutputStream out = new DeflaterOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                    out.write(chunk, 0, length);
+                }
+                Durable.install(temp, Repository.newObjectFile(Repository.chunks, id));
+            } finally {
+                temp.delete();
+            }
+        }
+        list.write(hexToBytes(id));
+        list.writeInt(length);
+    }
+}
@@ -9,16 +9,24 @@ import static gitlet.Repository.blobs;
 import static gitlet.Utils.join;
 import static gitlet.Utils.readObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.TimeZone;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /** Represents a gitlet commit object.
  *  TODO: It's a good idea to give a description here of what else this Class
@@ -27,6 +35,10 @@ import java.util.Map;
  *  @author Shuyao YU
  */
 public class Commit implements Serializable {
+
+    /** Same as the implicit UID of the commits saved so far, so they can still be read. */
+    private static final long serialVersionUID = -705742366571537148L;
+
     /**
      * TODO: add instance variables here.
      *
@@ -35,10 +47,30 @@ public class Commit implements Serializable {
      * variable is used. We've provided one example for `message`.
      */
 
+    /** Commits recently read or saved. A saved commit is never changed, so they never go stale. */
+    private static final LruCache<String, Commit> CACHE = new LruCache<>(1024);
+
+    /** Format of the timestamp, as log prints it. */
+    private static final String TIMESTAMP_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+
+    /** Formats and parses timestamps. Unlike a SimpleDateFormat it is thread safe, so one is
+     * shared by all commits. */
+    static final DateTimeFormatter TIMESTAMP =
+        DateTimeFormatter.ofPattern(TIMESTAMP_FORMAT, Locale.US);
+
+    /** First int of a commit in the binary format, "GC" and the format version. Commits saved
+     * before it are Java serialized. */
+    private static final int MAGIC = 0x47430001;
+
     /** The message of this Commit. */
     private String message;
-    /** The timestamp for this Commit. */
+    /** The timestamp for this Commit. Made from the time when first asked for. */
     private String timestamp;
+
+    /** The time of this Commit, in milliseconds since the epoch, and the offset from UTC of the
+     * time zone it was made in, in minutes, which the timestamp is shown in. */
+    private transient long time;
+    private transient int zoneOffset;
     /** the tracked parent  */
     private String parent; //the file name where the commit object can be found, in this case is the sha1 of the parent commit
 
@@ -51,40 +83,192 @@ public class Commit implements Serializable {
     /**the commit file actually stored under the object file*/
     private File commitFileName;
 
-    /** the commit object tracked blob files, key is the file name, value is the blob sha1*/
-    private Map<String,String> tracked = new HashMap<>();
+    /** the tracked files of commits saved before there were trees, key is the file name, value
+     * is the blob sha1. Null in newer commits*/
+    private Map<String,String> tracked;
+
+    /** the sha1 of the tree of the files tracked by this commit, null in commits saved before
+     * there were trees*/
+    private String tree;
+
+    /** the tracked files, key is the path, value is the blob sha1. A view of the tree, made on
+     * first use, and shared with the parent until this commit changes something*/
+    private transient FileMap files;
+
+    /** the paths this new commit changed that are not in files yet, a removed path mapping to
+     * null*/
+    private transient SortedMap<String,String> changes = new TreeMap<>();
 
 
     /** Initial Commit, commit at the first time*/
     public Commit(){
         message = "initial commit";
-        timestamp = dateToTimeStamp(new Date(0));
+        setTime(0);
         parent = "";
         sha1 = generateSHA1();
-        commitFileName = Utils.join(Repository.commits, sha1);
+        commitFileName = Repository.objectFile(Repository.commits, sha1);
     }
 
     /** Commit command after the initial commit*/
     public Commit(String message, String parent, String second_parent) {
-        timestamp = dateToTimeStamp(new Date());
+        setTime(System.currentTimeMillis());
         this.message = message;
         this.parent = parent;
         this.second_parent = second_parent;
         sha1 = generateSHA1();
     }
 
-    /** transfer the time stamp to the required date format, for passing the test*/
-    private static String dateToTimeStamp(Date date) {
-        DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
-        return dateFormat.format(date);
+    /** A commit read from the binary format, with the given sha1 and fields. */
+    private Commit(String sha1, String message, long time, int zoneOffset, String parent,
+                   String second_parent, String tree) {
+        this.sha1 = sha1;
+        this.message = message;
+        this.time = time;
+        this.zoneOffset = zoneOffset;
+        this.parent = parent;
+        this.second_parent = second_parent;
+        this.tree = tree;
+    }
+
+    /** Set the time of the commit to TIME, in the local time zone. */
+    private void setTime(long newTime) {
+        time = newTime;
+        zoneOffset = TimeZone.getDefault().getOffset(newTime) / 60000;
+        timestamp = dateToTimeStamp(time, zoneOffset);
+    }
+
+    /** transfer the time stamp to the required date format, for passing the test, in the time
+     * zone ZONEOFFSET minutes from UTC*/
+    private static String dateToTimeStamp(long time, int zoneOffset) {
+        return TIMESTAMP.format(
+            Instant.ofEpochMilli(time).atOffset(ZoneOffset.ofTotalSeconds(zoneOffset * 60)));
+    }
+
+    /** Set the time and zone offset of a commit read from the old serialized format from its
+     * timestamp. */
+    private void parseTimestamp() {
+        try {
+            OffsetDateTime date = OffsetDateTime.parse(timestamp, TIMESTAMP);
+            time = date.toInstant().toEpochMilli();
+            zoneOffset = date.getOffset().getTotalSeconds() / 60;
+        } catch (DateTimeParseException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return this commit in the binary format: the magic number, the time and zone offset, the
+     * message, the number of parents, the parents' ids and the tree's id. Strings are UTF-8 after
+     * their length, ids are their raw bytes. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeLong(time);
+            out.writeShort(zoneOffset);
+            Utils.writeString(out, message);
+            int parents = parent.isEmpty() ? 0 : second_parent.isEmpty() ? 1 : 2;
+            out.writeByte(parents);
+            if (parents > 0) {
+                out.write(Utils.hexToBytes(parent));
+            }
+            if (parents > 1) {
+                out.write(Utils.hexToBytes(second_parent));
+            }
+            out.write(Utils.hexToBytes(tree));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the commit with the given sha1 whose binary format is BYTES. Only the header is
+     * read: the files stay in the tree until getTracked is first called, so history commands,
+     * which need only the message, time and parents, never read them. Commits in the old
+     * serialized format are read the old way. */
+    static Commit decode(String sha1, byte[] bytes) {
+        if (Utils.isSerialized(bytes)) {
+            Commit commit = Utils.deserialize(bytes, Commit.class);
+            commit.parseTimestamp();
+            return commit;
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Bad commit " + sha1);
+        }
+        long time = in.getLong();
+        int zoneOffset = in.getShort();
+        String message = Utils.readString(in);
+        int parents = in.get();
+        String parent = parents > 0 ? Utils.readID(in) : "";
+        String second_parent = parents > 1 ? Utils.readID(in) : "";
+        return new Commit(sha1, message, time, zoneOffset, parent, second_parent,
+            Utils.readID(in));
+    }
+
+    /** Return the message of the commit in the binary format in ENCODED, reading nothing
+     * else. */
+    static String message(ByteBuffer encoded) {
+        encoded.position(4 + 8 + 2);
+        return Utils.readString(encoded);
     }
     /**
      * Saves the commit to a file for future use.
      */
     public void save() {
-        File currCo = Utils.join(Repository.commits, sha1);
-        Utils.writeObject(currCo, this);
+        if (tree == null && tracked == null) {
+            //only the trees of the changed directories are written
+            tree = fileMap().save();
+            files = FileMap.of(tree);
+        }
+        File currCo = Repository.newObjectFile(Repository.commits, sha1);
+        Durable.write(currCo, encode());
+        CACHE.put(sha1, this);
+    }
+    /** Read the commit with the given sha1, from the cache, its loose file or the packs. */
+    public static Commit read(String sha1) {
+        Commit commit = CACHE.get(sha1);
+        if (commit == null) {
+            commit = decode(sha1, readBytes(sha1));
+            CACHE.put(sha1, commit);
+        }
+        return commit;
+    }
+
+    /** Rewrite the commit with the given sha1 in the binary format, with its files in a tree, if
+     * it is in the old serialized format. Does nothing to a commit already in the binary
+     * format. */
+    static void upgrade(String sha1) {
+        byte[] bytes = readBytes(sha1);
+        if (!Utils.isSerialized(bytes)) {
+            return;
+        }
+        Commit commit = decode(sha1, bytes);
+        commit.tree = Tree.update(null, new TreeMap<>(commit.tracked));
+        commit.tracked = null;
+        commit.files = null;
+        Durable.write(Repository.newObjectFile(Repository.commits, sha1), commit.encode());
+        CACHE.put(sha1, commit);
     }
+
+    /** Return the cache of commits read or saved by this process. */
+    static LruCache<String, Commit> cache() {
+        return CACHE;
+    }
+
+    /** Return the encoded commit with the given sha1, from its loose file under
+     * objects/commits or from the packs. */
+    public static byte[] readBytes(String sha1) {
+        File loose = Repository.objectFile(Repository.commits, sha1);
+        if (loose.exists()) {
+            return Utils.readContents(loose);
+        }
+        byte[] packed = Pack.read(sha1);
+        if (packed == null) {
+            throw new IllegalArgumentException("No commit " + sha1);
+        }
+        return packed;
+    }
+
     /** Generate the commit sha1 hashcode*/
     private String generateSHA1() {
         return Utils.sha1(message,timestamp,parent);
@@ -96,26 +280,48 @@ public class Commit implements Serializable {
     }
 
 
-    /** get the current commit's tracked blobs*/
+    /** get the current commit's tracked blobs, key is the path, value is the blob sha1. Read
+     * only, a new commit is changed with addTracked and untracked*/
     public Map<String,String> getTracked() {
-        return tracked;
+        return fileMap();
+    }
+
+    /** get the tracked blobs as the FileMap they are kept in*/
+    private FileMap fileMap() {
+        if (files == null) {
+            if (tree != null) {
+                files = FileMap.of(tree);
+            } else if (tracked != null) {
+                files = FileMap.copyOf(tracked);
+            } else {
+                files = FileMap.EMPTY;
+            }
+        }
+        if (changes != null && !changes.isEmpty()) {
+            files = files.with(changes);
+            changes.clear();
+        }
+        return files;
     }
 
 
-    /** set the tracked blobs file from the parent commit*/
-    public void setTracked (Map<String,String> parentTracked){
-        tracked = parentTracked;
+    /** start the tracked blobs from the parent commit. The parent's FileMap is shared, not
+     * copied, and as it never changes the parent (which may be cached) is not changed along with
+     * this commit. Only the directories this commit changes get new trees*/
+    public void setTracked(Commit parentCommit) {
+        files = parentCommit.fileMap();
+        changes.clear();
     }
 
     /** add the tracked blob in the stage for addtion part, blobFileName is usually created by user*/
     public void addTracked(String blobFileName, String blobSha1) {
-        tracked.put(blobFileName, blobSha1);
+        changes.put(blobFileName, blobSha1);
     }
 
 
     /** untracked the blob in current commit, when got the rm command*/
     public void untracked(String blobFileName) {
-        tracked.remove(blobFileName);
+        changes.put(blobFileName, null);
     }
 
     /** Get the parent of commit.*/
@@ -130,9 +336,17 @@ public class Commit implements Serializable {
 
     /** Get the time stamp in string. */
     public String getTimestamp() {
+        if (timestamp == null) {
+            timestamp = dateToTimeStamp(time, zoneOffset);
+        }
         return timestamp;
     }
 
+    /** Get the time of the commit, in milliseconds since the epoch. */
+    public long getTime() {
+        return time;
+    }
+
     /** get the commit message*/
     public String getMessage () {
         return message;
@@ -0,0 +1,292 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** The commit graph in objects/commit-graph: one fixed width record per commit, holding its id,
+ *  the record numbers of its parents, its generation number and its commit time. The file is a
+ *  RecordFile: the records sorted by id, like the commit index, then those of the commits made
+ *  since, in commit order, so a commit's record is found with a binary search and a scan of the
+ *  newer ones. Walks over history, such as finding the split point of a merge, use the graph and
+ *  read no commit objects.
+ *  A commit appends its record and moves no other, so the record numbers the parents are stored
+ *  as stay the same. Adding one costs a binary search for each parent and a read of the newer
+ *  records; every maxTail commits, and on gc, the graph is sorted again, which costs a read and
+ *  a write of the whole graph, and renumbers the parents.
+ *  The generation of the initial commit is 1, of any other commit one more than its parents'.
+ *  @author Susie
+ */
+class CommitGraph {
+
+    /** First int of the file, "GCG2". Graphs of version 1 kept the records in commit order. */
+    private static final int MAGIC = 0x47434732;
+
+    /** A record is the id, two parent record numbers, the generation and the time. */
+    private static final int RECORD_SIZE = ID_SIZE + 4 + 4 + 4 + 8;
+
+    /** Offsets in a record of the parents, the generation and the time. */
+    private static final int PARENTS = ID_SIZE;
+    private static final int GENERATION = ID_SIZE + 8;
+    private static final int TIME = ID_SIZE + 12;
+
+    /** Parent record number meaning there is no such parent. */
+    private static final int NONE = -1;
+
+    /** Flags of the merge base search. */
+    private static final int FROM_FIRST = 1;
+    private static final int FROM_SECOND = 2;
+    private static final int STALE = 4;
+
+    private final RecordFile records;
+
+    private CommitGraph(RecordFile records) {
+        this.records = records;
+    }
+
+    /** Return the commit graph of the repository. */
+    static CommitGraph load() {
+        return new CommitGraph(RecordFile.load(Repository.COMMIT_GRAPH, MAGIC, RECORD_SIZE));
+    }
+
+    /** Return true if the repository has a commit graph in the current format. */
+    static boolean isCurrent() {
+        return RecordFile.isCurrent(Repository.COMMIT_GRAPH, MAGIC);
+    }
+
+    /** Append the record of the new COMMIT, whose parents must already be in the graph.
+     *  Creates the graph if there is none, and sorts it if it has maxTail unsorted records. */
+    static void add(Commit commit) {
+        if (!Repository.COMMIT_GRAPH.exists()) {
+            RecordFile.write(Repository.COMMIT_GRAPH, MAGIC,
+                List.of(record(commit.getSha1(), NONE, NONE, 1, commit.getTime())));
+            return;
+        }
+        boolean full;
+        try (RecordFile graph =
+                 RecordFile.open(Repository.COMMIT_GRAPH, MAGIC, RECORD_SIZE, "rw")) {
+            if (find(graph, commit.getSha1()) != NONE) {
+                return;
+            }
+            int first = find(graph, commit.getParent());
+            int second = find(graph, commit.getSecond_parent());
+            int generation = 1;
+            for (int parent : new int[] {first, second}) {
+                if (parent != NONE) {
+                    generation = Math.max(generation, graph.getInt(parent, GENERATION) + 1);
+                }
+            }
+            graph.append(record(commit.getSha1(), first, second, generation, commit.getTime()));
+            full = graph.tailFull();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (full) {
+            sort();
+        }
+    }
+
+    /** Rewrite the graph with all its records sorted by id, their parents renumbered. Does
+     *  nothing if there is no graph or it is sorted already. */
+    static void sort() {
+        if (!Repository.COMMIT_GRAPH.exists()) {
+            return;
+        }
+        RecordFile graph = RecordFile.load(Repository.COMMIT_GRAPH, MAGIC, RECORD_SIZE);
+        if (graph.sorted() == graph.count()) {
+            return;
+        }
+        List<Integer> order = new ArrayList<>(graph.count());
+        for (int pos = 0; pos < graph.count(); pos++) {
+            order.add(pos);
+        }
+        order.sort((x, y) -> Arrays.compareUnsigned(graph.record(x), 0, ID_SIZE,
+            graph.record(y), 0, ID_SIZE));
+        int[] renumbered = new int[graph.count()];
+        for (int i = 0; i < order.size(); i++) {
+            renumbered[order.get(i)] = i;
+        }
+        List<byte[]> sorted = new ArrayList<>(graph.count());
+        for (int pos : order) {
+            ByteBuffer record = ByteBuffer.wrap(graph.record(pos));
+            for (int which = 0; which < 2; which++) {
+                int parent = record.getInt(PARENTS + 4 * which);
+                if (parent != NONE) {
+                    record.putInt(PARENTS + 4 * which, renumbered[parent]);
+                }
+            }
+            sorted.add(record.array());
+        }
+        RecordFile.write(Repository.COMMIT_GRAPH, MAGIC, sorted);
+    }
+
+    /** Replace the graph with one holding COMMITS, which maps each commit's id to the commit
+     *  and must include every parent. */
+    static void rebuild(Map<String, Commit> commits) {
+        //order the commits so every parent comes before its children
+        List<Commit> order = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        for (String start : commits.keySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (visited.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = commits.get(id);
+                boolean ready = true;
+                for (String parent : new String[] {commit.getParent(), commit.getSecond_parent()}) {
+                    if (!parent.isEmpty() && !visited.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    visited.add(id);
+                    order.add(commit);
+                    stack.pop();
+                }
+            }
+        }
+
+        //generations in that order, since each one needs its parents'
+        Map<String, Integer> generations = new HashMap<>();
+        for (Commit commit : order) {
+            int generation = 1;
+            for (String parent : new String[] {commit.getParent(), commit.getSecond_parent()}) {
+                if (generations.containsKey(parent)) {
+                    generation = Math.max(generation, generations.get(parent) + 1);
+                }
+            }
+            generations.put(commit.getSha1(), generation);
+        }
+
+        List<String> ids = new ArrayList<>(generations.keySet());
+        Collections.sort(ids);
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+        }
+        List<byte[]> records = new ArrayList<>();
+        for (String id : ids) {
+            Commit commit = commits.get(id);
+            records.add(record(id, positions.getOrDefault(commit.getParent(), NONE),
+                positions.getOrDefault(commit.getSecond_parent(), NONE),
+                generations.get(id), commit.getTime()));
+        }
+        RecordFile.write(Repository.COMMIT_GRAPH, MAGIC, records);
+    }
+
+    /** Return the id of the best common ancestor of commits A and B, the one with the highest
+     *  generation, or null if they have none. Commits are searched from the highest generation
+     *  down, and the search stops once every commit left to visit is below a common ancestor
+     *  already found. */
+    String mergeBase(String a, String b) {
+        int first = find(a);
+        int second = find(b);
+        if (first == NONE || second == NONE) {
+            throw new IllegalArgumentException("Commit not in the commit graph");
+        }
+        if (first == second) {
+            return a;
+        }
+        int[] flags = new int[records.count()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(generation(y), generation(x));
+            return cmp != 0 ? cmp : Long.compare(time(y), time(x));
+        });
+        flags[first] = FROM_FIRST;
+        flags[second] = FROM_SECOND;
+        queue.add(first);
+        queue.add(second);
+        int best = NONE;
+        int notStale = 2;
+        while (notStale > 0) {
+            int pos = queue.poll();
+            int flag = flags[pos];
+            if ((flag & STALE) == 0) {
+                notStale--;
+            }
+            if ((flag & (FROM_FIRST | FROM_SECOND)) == (FROM_FIRST | FROM_SECOND)
+                && (flag & STALE) == 0) {
+                if (best == NONE || generation(pos) > generation(best)) {
+                    best = pos;
+                }
+                flag |= STALE;
+            }
+            for (int parent : new int[] {parent(pos, 0), parent(pos, 1)}) {
+                if (parent == NONE || (flags[parent] | flag) == flags[parent]) {
+                    continue;
+                }
+                boolean wasQueued = flags[parent] != 0;
+                boolean wasLive = wasQueued && (flags[parent] & STALE) == 0;
+                flags[parent] |= flag;
+                boolean live = (flags[parent] & STALE) == 0;
+                if (!wasQueued) {
+                    queue.add(parent);
+                    if (live) {
+                        notStale++;
+                    }
+                } else if (wasLive && !live) {
+                    notStale--;
+                }
+            }
+        }
+        return best == NONE ? null : id(best);
+    }
+
+    /** Return the record number of the commit ID, or NONE if it is not in the graph. */
+    private int find(String id) {
+        return find(records, id);
+    }
+
+    /** Return the record number of the commit ID in GRAPH, or NONE if it is not in it. */
+    private static int find(RecordFile graph, String id) {
+        return id.isEmpty() ? NONE : graph.find(hexToBytes(id));
+    }
+
+    /** Return the id of the commit at record POS. */
+    private String id(int pos) {
+        return bytesToHex(Arrays.copyOf(records.record(pos), ID_SIZE));
+    }
+
+    /** Return the record number of parent WHICH, 0 or 1, of the commit at record POS. */
+    private int parent(int pos, int which) {
+        return records.getInt(pos, PARENTS + 4 * which);
+    }
+
+    /** Return the generation of the commit at record POS. */
+    private int generation(int pos) {
+        return records.getInt(pos, GENERATION);
+    }
+
+    /** Return the commit time of the commit at record POS. */
+    private long time(int pos) {
+        return records.getLong(pos, TIME);
+    }
+
+    /** Return the bytes of one record. */
+    private static byte[] record(String id, int first, int second, int generation, long time) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(hexToBytes(id));
+        record.putInt(first);
+        record.putInt(second);
+        record.putInt(generation);
+        record.putLong(time);
+        return record.array();
+    }
+}
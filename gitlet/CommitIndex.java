@@ -0,0 +1,100 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** The list of every commit id, loose or packed, in objects/commit-index. The ids are stored as
+ *  fixed width binary records, see RecordFile: most of them sorted, so a commit can be found
+ *  from a prefix of its id with a binary search, and those of the newest commits after them.
+ *  submitCommit appends each new commit's id in place, which costs a binary search and a read of
+ *  the unsorted ids, and never rewrites the ids already there until the unsorted ones are too
+ *  many, or gc runs.
+ *  @author Susie
+ */
+class CommitIndex {
+
+    /** First int of the file, "GCX1". */
+    private static final int MAGIC = 0x47435831;
+
+    /** Shortest prefix of an id that is resolved. */
+    static final int MIN_PREFIX = 4;
+
+    /** Add the commit ID to the index, creating the index if there is none. */
+    static void add(String id) {
+        byte[] key = hexToBytes(id);
+        if (!Repository.COMMIT_INDEX.exists()) {
+            RecordFile.write(Repository.COMMIT_INDEX, MAGIC, List.of(key));
+            return;
+        }
+        boolean full;
+        try (RecordFile index = RecordFile.open(Repository.COMMIT_INDEX, MAGIC, ID_SIZE, "rw")) {
+            if (index.find(key) >= 0) {
+                return;
+            }
+            index.append(key);
+            full = index.tailFull();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (full) {
+            sort();
+        }
+    }
+
+    /** Replace the index with one holding exactly IDS. */
+    static void rebuild(Collection<String> ids) {
+        List<byte[]> records = new ArrayList<>();
+        for (String id : new TreeSet<>(ids)) {
+            records.add(hexToBytes(id));
+        }
+        RecordFile.write(Repository.COMMIT_INDEX, MAGIC, records);
+    }
+
+    /** Sort the ids added since the index was last sorted in with the others. */
+    static void sort() {
+        RecordFile.sort(Repository.COMMIT_INDEX, MAGIC, ID_SIZE);
+    }
+
+    /** Return the ids of the commits that start with PREFIX, at most LIMIT of them, in sorted
+     *  order. PREFIX must be at least MIN_PREFIX hex digits, otherwise nothing matches. */
+    static List<String> matches(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        prefix = prefix.toLowerCase();
+        if (prefix.length() < MIN_PREFIX || prefix.length() > UID_LENGTH) {
+            return result;
+        }
+        //the smallest id with the prefix is the prefix padded with zeros
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < UID_LENGTH) {
+            padded.append('0');
+        }
+        byte[] key = hexToBytes(padded.toString());
+        if (key == null) {
+            return result;
+        }
+        try (RecordFile index = RecordFile.open(Repository.COMMIT_INDEX, MAGIC, ID_SIZE, "r")) {
+            for (int i = index.lowerBound(key); i < index.sorted() && result.size() < limit; i++) {
+                String id = bytesToHex(index.record(i));
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                result.add(id);
+            }
+            for (int i = index.sorted(); i < index.count(); i++) {
+                String id = bytesToHex(index.record(i));
+                if (id.startsWith(prefix) && !result.contains(id)) {
+                    result.add(id);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        result.sort(null);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+}
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/** The gitlet daemon: a process that stays up and runs the commands of one repository, so each
+ *  command skips JVM startup and finds the commit and blob caches warm. It listens on the Unix
+ *  domain socket .gitlet/daemon.sock. While it runs, gitlet.Main is a thin client: it sends its
+ *  arguments over the socket, and prints the output and exits with the code the daemon sends back.
+ *  A request is the number of arguments and then each argument. A reply is what the command wrote
+ *  to System.out, then what it wrote to System.err, each as a length and the bytes, then the exit
+ *  code. Commands are run one at a time.
+ *  @author Susie
+ */
+class Daemon {
+
+    /** Thrown by Utils.exit while the daemon runs a command, in place of System.exit. */
+    static class Exit extends RuntimeException {
+        private static final long serialVersionUID = 4711538826154382930L;
+
+        final int code;
+
+        Exit(int code) {
+            super(null, null, false, false);
+            this.code = code;
+        }
+    }
+
+    /** True while the daemon is running a command. */
+    private static boolean serving;
+
+    /** Return true if the current command is run by the daemon. */
+    static boolean serving() {
+        return serving;
+    }
+
+    /** Send ARGS to the daemon of the repository in the working directory, print its reply and
+     *  exit with its exit code. Returns false, having done nothing, if no daemon is running. */
+    static boolean forward(String[] args) throws IOException {
+        if (!Files.exists(Repository.DAEMON_SOCKET.toPath())) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(Repository.DAEMON_SOCKET.toPath()));
+        } catch (IOException excp) {
+            return false;    //a socket left behind by a daemon that died
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            System.out.write(readBlock(in));
+            System.out.flush();
+            System.err.write(readBlock(in));
+            System.err.flush();
+            System.exit(in.readInt());
+        }
+        return true;
+    }
+
+    /** Serve the commands of the repository in the working directory until a "daemon stop"
+     *  command comes. */
+    static void serve() throws IOException {
+        if (Files.exists(Repository.DAEMON_SOCKET.toPath())) {
+            Files.delete(Repository.DAEMON_SOCKET.toPath());
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(Repository.DAEMON_SOCKET.toPath()));
+        Runtime.getRuntime().addShutdownHook(new Thread(Repository.DAEMON_SOCKET::delete));
+        System.out.println("Serving gitlet commands.");
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        boolean stop = false;
+        while (!stop) {
+            try (SocketChannel client = server.accept()) {
+                DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = in.readUTF();
+                }
+                stop = args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteArrayOutputStream err = new ByteArrayOutputStream();
+                System.setOut(new PrintStream(out, true));
+                System.setErr(new PrintStream(err, true));
+                int code = run(args);
+                System.setOut(stdout);
+                System.setErr(stderr);
+
+                DataOutputStream reply = new DataOutputStream(Channels.newOutputStream(client));
+                writeBlock(reply, out.toByteArray());
+                writeBlock(reply, err.toByteArray());
+                reply.writeInt(code);
+                reply.flush();
+            } catch (IOException excp) {
+                System.setOut(stdout);
+                System.setErr(stderr);
+                System.err.println("gitlet daemon: " + excp.getMessage());
+            }
+        }
+        server.close();
+        Repository.DAEMON_SOCKET.delete();
+    }
+
+    /** Run the command ARGS as gitlet.Main would and return its exit code. An uncaught exception
+     *  is printed the way the JVM prints it, with exit code 1. */
+    private static int run(String[] args) {
+        if (args.length > 0 && args[0].equals("daemon")) {
+            if (args.length == 2 && args[1].equals("stop")) {
+                System.out.println("Stopped serving gitlet commands.");
+            } else {
+                System.out.println("A Gitlet daemon is already running.");
+            }
+            return 0;
+        }
+        //another process may have run gc while no daemon was up
+        Pack.reload();
+        Refs.reload();
+        serving = true;
+        try {
+            Main.run(args);
+            return 0;
+        } catch (Exit exit) {
+            return exit.code;
+        } catch (Throwable excp) {
+            System.err.print("Exception in thread \"main\" ");
+            excp.printStackTrace();
+            return 1;
+        } finally {
+            RepoLock.release();
+            System.out.flush();
+            serving = false;
+        }
+    }
+
+    /** Write DATA to OUT as its length and then its bytes. */
+    private static void writeBlock(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /** Read a block written by writeBlock from IN. */
+    private static byte[] readBlock(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+}
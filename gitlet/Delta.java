@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Binary delta between two versions of a blob, used by packs to store a blob as the changes
+ *  from a similar blob. A delta is the two lengths followed by a list of instructions, either
+ *  copy (a range of the base) or insert (literal bytes).
+ *  @author Susie
+ */
+class Delta {
+
+    /** Size of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Largest literal run a single insert instruction can hold. */
+    private static final int MAX_INSERT = 127;
+
+    /** Flag bit marking a copy instruction. */
+    private static final int COPY = 0x80;
+
+    /** Return a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarInt(out, base.length);
+        writeVarInt(out, target.length);
+
+        int[] table = indexBlocks(base);
+        int mask = table.length - 1;
+        int pending = 0;   //start of the literal bytes not yet written
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table[hash(target, i) & mask] - 1;
+            if (candidate < 0 || !Arrays.equals(base, candidate, candidate + BLOCK,
+                target, i, i + BLOCK)) {
+                i++;
+                continue;
+            }
+            //extend the match backwards into the literal bytes, and forwards as far as possible
+            int start = candidate;
+            while (start > 0 && i > pending && base[start - 1] == target[i - 1]) {
+                start--;
+                i--;
+            }
+            int length = 0;
+            while (start + length < base.length && i + length < target.length
+                && base[start + length] == target[i + length]) {
+                length++;
+            }
+            writeInsert(out, target, pending, i);
+            out.write(COPY);
+            writeVarInt(out, start);
+            writeVarInt(out, length);
+            i += length;
+            pending = i;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarInt(delta, pos) != base.length) {
+            throw new IllegalArgumentException("delta does not match its base");
+        }
+        byte[] result = new byte[readVarInt(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if ((op & COPY) != 0) {
+                int offset = readVarInt(delta, pos);
+                int length = readVarInt(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], result, written, op);
+                pos[0] += op;
+                written += op;
+            }
+        }
+        if (written != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Hash table from block hash to (offset + 1) of the block-aligned blocks of BASE. Later
+     *  blocks win, zero means empty. */
+    private static int[] indexBlocks(byte[] base) {
+        int size = Integer.highestOneBit(Math.max(base.length / BLOCK, 1) * 2);
+        int[] table = new int[size];
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            table[hash(base, offset) & (size - 1)] = offset + 1;
+        }
+        return table;
+    }
+
+    /** Hash of the BLOCK bytes of DATA starting at OFFSET. */
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int k = offset; k < offset + BLOCK; k++) {
+            h = h * 31 + data[k];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Write the bytes of DATA from FROM to TO as insert instructions. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    /** Write a non-negative VALUE in 7-bit groups, low group first. */
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Read a value written by writeVarInt from DATA at POS[0], advancing POS[0]. */
+    private static int readVarInt(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,228 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/** The line diff of two texts, with Myers' algorithm in linear space: the shortest edit script
+ *  is found by searching from both ends at once until the two searches meet in a middle snake,
+ *  and the halves on either side of it are diffed the same way. Lines are compared as longs,
+ *  each distinct line numbered once, or the hash of each line where the texts are streamed, and
+ *  the lines the texts start and end with in common are skipped before any search. The cost is
+ *  about the number of lines times the number of changed lines. A search that goes past MAX_COST
+ *  changes gives up on finding the shortest script for that part and marks all of it changed, so
+ *  very different texts still diff quickly.
+ *  The files of two commits are compared the same way one level up, by path: both maps are
+ *  sorted, so one walk over the two finds every path added, removed or changed. The files of
+ *  two saved commits are compared by their trees instead, skipping the directories they share.
+ *  @author Susie
+ */
+class Diff {
+
+    /** Most changes a search looks through before it settles for a longer script. */
+    private static final int MAX_COST = 1 << 10;
+
+    /** A change: lines beginA to endA of the first text, exclusive, are replaced by lines beginB
+     *  to endB of the second. An insertion has beginA == endA, a deletion beginB == endB. */
+    static class Edit {
+        final int beginA;
+        final int endA;
+        final int beginB;
+        final int endB;
+
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+    }
+
+    /** A path whose blob id is OLDID on one side and NEWID on the other, null where the path
+     *  has no file. */
+    static class Change {
+        final String path;
+        final String oldId;
+        final String newId;
+
+        Change(String path, String oldId, String newId) {
+            this.path = path;
+            this.oldId = oldId;
+            this.newId = newId;
+        }
+    }
+
+    private final long[] a;
+    private final long[] b;
+    private final List<Edit> edits = new ArrayList<>();
+
+    private Diff(long[] a, long[] b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    /** Return the lines of CONTENTS, decoded as UTF-8, each with its line terminator. The last
+     *  line has none if the text does not end in one. */
+    static List<String> lines(byte[] contents) {
+        String text = new String(contents, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /** Return the changes that turn the lines A into the lines B, in order. */
+    static List<Edit> diff(List<String> a, List<String> b) {
+        Map<String, Integer> ids = new HashMap<>();
+        return diff(number(a, ids), number(b, ids));
+    }
+
+    /** Return the changes that turn the lines A into the lines B, in order, each line given as
+     *  a number that is the same for equal lines, such as a hash. */
+    static List<Edit> diff(long[] a, long[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.edits;
+    }
+
+    /** Return the paths whose files differ between OLDFILES and NEWFILES, maps from path to blob
+     *  id that iterate in path order, as the files of a commit do, in path order. */
+    static List<Change> changes(Map<String, String> oldFiles, Map<String, String> newFiles) {
+        if (oldFiles instanceof FileMap && newFiles instanceof FileMap) {
+            List<Change> changes = ((FileMap) oldFiles).changesTo((FileMap) newFiles);
+            if (changes != null) {
+                return changes;
+            }
+        }
+        List<Change> changes = new ArrayList<>();
+        Iterator<Map.Entry<String, String>> olds = oldFiles.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> news = newFiles.entrySet().iterator();
+        Map.Entry<String, String> o = olds.hasNext() ? olds.next() : null;
+        Map.Entry<String, String> n = news.hasNext() ? news.next() : null;
+        while (o != null || n != null) {
+            int cmp = o == null ? 1 : n == null ? -1 : o.getKey().compareTo(n.getKey());
+            if (cmp < 0) {
+                changes.add(new Change(o.getKey(), o.getValue(), null));
+                o = olds.hasNext() ? olds.next() : null;
+            } else if (cmp > 0) {
+                changes.add(new Change(n.getKey(), null, n.getValue()));
+                n = news.hasNext() ? news.next() : null;
+            } else {
+                if (!o.getValue().equals(n.getValue())) {
+                    changes.add(new Change(o.getKey(), o.getValue(), n.getValue()));
+                }
+                o = olds.hasNext() ? olds.next() : null;
+                n = news.hasNext() ? news.next() : null;
+            }
+        }
+        return changes;
+    }
+
+    /** Return the number of each of LINES, numbering lines not in IDS yet. */
+    private static long[] number(List<String> lines, Map<String, Integer> ids) {
+        long[] result = new long[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            Integer id = ids.putIfAbsent(lines.get(i), ids.size());
+            result[i] = id == null ? ids.size() - 1 : id;
+        }
+        return result;
+    }
+
+    /** Add the changes that turn a[aLo, aHi) into b[bLo, bHi). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                add(aLo, aHi, bLo, bHi);
+            }
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        if (snake == null) {
+            add(aLo, aHi, bLo, bHi);
+            return;
+        }
+        compare(aLo, snake[0], bLo, snake[1]);
+        compare(snake[2], aHi, snake[3], bHi);
+    }
+
+    /** Return the middle snake of a shortest script for a[aLo, aHi) and b[bLo, bHi), as its
+     *  start and end, {startA, startB, endA, endB}, or null if it costs more than MAX_COST. The
+     *  ranges must differ in their first and in their last lines. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = Math.min((n + m + 1) / 2, MAX_COST);
+        int offset = max + 1;
+        //furthest x reached on each diagonal k = x - y, forwards from the start and, in the
+        //reversed texts, backwards from the end
+        int[] forward = new int[2 * max + 3];
+        int[] backward = new int[2 * max + 3];
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                    ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                int back = delta - k;
+                if (odd && back >= -(d - 1) && back <= d - 1
+                    && x + backward[offset + back] >= n) {
+                    return new int[] {aLo + startX, bLo + startY, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                    ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+                int ahead = delta - k;
+                if (!odd && ahead >= -d && ahead <= d && x + forward[offset + ahead] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - startX, bHi - startY};
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Add the change of a[aLo, aHi) into b[bLo, bHi), joining it to the last change if they
+     *  touch. */
+    private void add(int aLo, int aHi, int bLo, int bHi) {
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.endA == aLo && last.endB == bLo) {
+                edits.set(edits.size() - 1, new Edit(last.beginA, aHi, last.beginB, bHi));
+                return;
+            }
+        }
+        edits.add(new Edit(aLo, aHi, bLo, bHi));
+    }
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Writes files so that a crash, a full disk or a power loss never leaves one half written.
+ *  A file is written under a temporary name in .gitlet/tmp and renamed over its target only once
+ *  it is complete, so a reader sees the old file or the new one, never a part.
+ *  Objects are many and each is written once, so they are not synced as they are installed:
+ *  their names are kept, and sync flushes all of them together, then the directories they went
+ *  into, each once. A ref or the stage is what makes objects reachable, so replace syncs the
+ *  objects first and then the file it writes, and nothing ever points at an object a power loss
+ *  could take back. The files of a sync are flushed in parallel, which lets the file system
+ *  commit them in a few journal writes instead of one each.
+ *  The indexes of commits grow by records appended in place instead, see RecordFile. Their
+ *  readers ignore a record cut short, and they are synced along with the objects.
+ *  @author Susie
+ */
+class Durable {
+
+    /** Files installed but not synced yet. */
+    private static final Set<File> PENDING = new LinkedHashSet<>();
+
+    /** Return a new temporary file to write a file under before it is installed. */
+    static File tempFile() throws IOException {
+        Repository.TMP_DIR.mkdirs();
+        return File.createTempFile("tmp", null, Repository.TMP_DIR);
+    }
+
+    /** Rename the complete file TEMP to TARGET, replacing it. TARGET is synced by the next sync. */
+    static void install(File temp, File target) throws IOException {
+        Files.move(temp.toPath(), target.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (PENDING) {
+            PENDING.add(target);
+        }
+    }
+
+    /** Note that records were appended to FILE in place, so the next sync flushes it. Only for
+     *  files whose readers ignore a record cut short, see RecordFile. */
+    static void appended(File file) {
+        synchronized (PENDING) {
+            PENDING.add(file);
+        }
+    }
+
+    /** Write CONTENTS to FILE through a temporary file. FILE is synced by the next sync. */
+    static void write(File file, byte[] contents) {
+        File temp = null;
+        try {
+            temp = tempFile();
+            Files.write(temp.toPath(), contents);
+            install(temp, file);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Write CONTENTS to FILE through a temporary file, after syncing every file installed so
+     *  far, and sync FILE too before returning. For refs, HEAD and the stage. */
+    static void replace(File file, byte[] contents) {
+        write(file, contents);
+        sync();
+    }
+
+    /** Flush every file installed since the last sync to the disk, then the directories they
+     *  were renamed into, and the directories above those, which may have been made for them. */
+    static void sync() {
+        List<String> files;
+        synchronized (PENDING) {
+            if (PENDING.isEmpty()) {
+                return;
+            }
+            files = new ArrayList<>();
+            for (File file : PENDING) {
+                files.add(file.getPath());
+            }
+            PENDING.clear();
+        }
+        Set<String> dirs = new LinkedHashSet<>();
+        for (String path : files) {
+            File dir = new File(path).getAbsoluteFile().getParentFile();
+            dirs.add(dir.getPath());
+            dirs.add(dir.getParent());
+        }
+        try {
+            ParallelScan.map(files, path -> force(new File(path), StandardOpenOption.WRITE));
+            ParallelScan.map(new ArrayList<>(dirs),
+                path -> force(new File(path), StandardOpenOption.READ));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Flush FILE, opened with MODE, to the disk. A directory that cannot be opened is skipped,
+     *  as on systems that do not sync directories. */
+    private static Void force(File file, StandardOpenOption mode) throws IOException {
+        if (file.isDirectory()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), mode)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                //the rename is as durable as this system makes it
+            }
+        } else if (file.exists()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), mode)) {
+                channel.force(true);
+            }
+        }
+        return null;
+    }
+}
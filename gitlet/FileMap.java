@@ -0,0 +1,217 @@
+package gitlet;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** The files of a commit, an immutable map from path to blob id. It is a saved tree plus the
+ *  paths changed on top of it, so it is never copied out into a map of its own: lookups walk the
+ *  tree a directory at a time, and iteration walks it depth first, which gives the paths in
+ *  sorted order. The trees come from Tree's cache, so every map and commit with the same
+ *  directory shares its one decoded tree, in memory as on disk. A changed map is a new FileMap
+ *  over the same tree, and saving it writes only the trees of the changed directories.
+ *  @author Susie
+ */
+class FileMap extends AbstractMap<String, String> {
+
+    /** A map with no files. */
+    static final FileMap EMPTY = new FileMap(null, Collections.emptySortedMap());
+
+    /** The saved tree, or null for none. */
+    private final String tree;
+
+    /** Paths changed since the tree, a removed path mapping to null. */
+    private final SortedMap<String, String> changes;
+
+    /** The number of files, or -1 until it is counted. */
+    private int size = -1;
+
+    private FileMap(String tree, SortedMap<String, String> changes) {
+        this.tree = tree;
+        this.changes = changes;
+    }
+
+    /** Return the files of the saved tree with the given sha1. */
+    static FileMap of(String tree) {
+        return new FileMap(tree, Collections.emptySortedMap());
+    }
+
+    /** Return a map holding the same files as FILES, with no tree yet. */
+    static FileMap copyOf(Map<String, String> files) {
+        return new FileMap(null, Collections.unmodifiableSortedMap(new TreeMap<>(files)));
+    }
+
+    /** Return this map with NEWCHANGES applied, a path mapping to null being removed. This map
+     *  is not changed. */
+    FileMap with(SortedMap<String, String> newChanges) {
+        if (newChanges.isEmpty()) {
+            return this;
+        }
+        TreeMap<String, String> merged = new TreeMap<>(changes);
+        merged.putAll(newChanges);
+        return new FileMap(tree, Collections.unmodifiableSortedMap(merged));
+    }
+
+    /** Save the trees of the changed directories, and return the sha1 of the whole tree. */
+    String save() {
+        if (changes.isEmpty() && tree != null) {
+            return tree;
+        }
+        return Tree.update(tree, changes);
+    }
+
+    /** Return the files that differ between this map and OTHER, in path order, or null unless
+     *  both are saved trees with no changes on top. Then only the directories whose trees
+     *  differ are read, see Tree.changes. */
+    List<Diff.Change> changesTo(FileMap other) {
+        if (!changes.isEmpty() || !other.changes.isEmpty()) {
+            return null;
+        }
+        List<Diff.Change> result = new ArrayList<>();
+        Tree.changes(tree, other.tree, "", result);
+        return result;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        if (changes.containsKey(key)) {
+            return changes.get(key);
+        }
+        return tree == null ? null : Tree.lookup(tree, (String) key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        if (size < 0) {
+            int count = tree == null ? 0 : Tree.fileCount(tree);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                boolean inTree = tree != null && Tree.lookup(tree, change.getKey()) != null;
+                if (inTree && change.getValue() == null) {
+                    count--;
+                } else if (!inTree && change.getValue() != null) {
+                    count++;
+                }
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new FileIterator();
+            }
+
+            @Override
+            public int size() {
+                return FileMap.this.size();
+            }
+        };
+    }
+
+    /** Iterates over the files in path order, merging the walk of the tree with the changes. */
+    private class FileIterator implements Iterator<Map.Entry<String, String>> {
+
+        /** The entries left in each directory being walked, innermost first, with its path. */
+        private final Deque<Iterator<Map.Entry<String, String>>> dirs = new ArrayDeque<>();
+        private final Deque<String> prefixes = new ArrayDeque<>();
+
+        private final Iterator<Map.Entry<String, String>> changed = changes.entrySet().iterator();
+        private Map.Entry<String, String> nextInTree;
+        private Map.Entry<String, String> nextChanged;
+        private Map.Entry<String, String> next;
+
+        FileIterator() {
+            if (tree != null) {
+                dirs.push(Tree.entries(tree).entrySet().iterator());
+                prefixes.push("");
+            }
+            nextInTree = advanceTree();
+            nextChanged = changed.hasNext() ? changed.next() : null;
+            next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> result = next;
+            next = advance();
+            return result;
+        }
+
+        /** Return the next file of the merged walk, or null at the end. */
+        private Map.Entry<String, String> advance() {
+            while (nextInTree != null || nextChanged != null) {
+                int cmp = nextInTree == null ? 1 : nextChanged == null ? -1
+                    : nextInTree.getKey().compareTo(nextChanged.getKey());
+                if (cmp < 0) {
+                    Map.Entry<String, String> result = nextInTree;
+                    nextInTree = advanceTree();
+                    return result;
+                }
+                Map.Entry<String, String> change = nextChanged;
+                nextChanged = changed.hasNext() ? changed.next() : null;
+                if (cmp == 0) {
+                    nextInTree = advanceTree();
+                }
+                if (change.getValue() != null) {
+                    return change;
+                }
+            }
+            return null;
+        }
+
+        /** Return the next file of the tree, or null at the end. */
+        private Map.Entry<String, String> advanceTree() {
+            while (!dirs.isEmpty()) {
+                if (!dirs.peek().hasNext()) {
+                    dirs.pop();
+                    prefixes.pop();
+                    continue;
+                }
+                Map.Entry<String, String> entry = dirs.peek().next();
+                String path = prefixes.peek() + entry.getKey();
+                if (path.endsWith("/")) {
+                    dirs.push(Tree.entries(entry.getValue()).entrySet().iterator());
+                    prefixes.push(path);
+                } else {
+                    return new AbstractMap.SimpleImmutableEntry<>(path, entry.getValue());
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -1,17 +1,27 @@
 package gitlet;
 
 import static gitlet.Utils.*;
-import static java.lang.Integer.MAX_VALUE;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Gitlet {
   /**
@@ -43,17 +53,23 @@ public class Gitlet {
    * Create the .gitlet directory and all the related structure, with the init argv.
    */
   public static void init() throws IOException {
-    if (GITLET_DIR.exists()) {
+    //only one of two inits racing makes the directory, and it takes the lock, making
+    //.gitlet/lock, before setUp lays anything else out. A command that locks the directory
+    //first finds no HEAD and stops, one that comes later waits for the whole repository
+    if (!GITLET_DIR.mkdir()) {
       System.out.println("A Gitlet version-control system already exists in the current directory.");
-      System.exit(0);
+      Utils.exit(0);
     }
+    RepoLock.acquire(false);
     Repository.setUp();
     initialCommit();
     currBranch = "master";
     //HEAD  points to initialCommit.
     setHEAD(currBranch);
     //heads contains the newest commit in all branches, now only have a master branch
-    Utils.writeContents(join(heads, currBranch), currCommit.getSha1());
+    String reason = "commit (initial): " + currCommit.getMessage();
+    Refs.update(currBranch, currCommit.getSha1(), reason);
+    Refs.logHead(null, currCommit.getSha1(), reason);
 
     //set and save the initial stage
     Stage stage = new Stage();
@@ -69,6 +85,9 @@ public class Gitlet {
     Commit initialCommit = new Commit();
     currCommit = initialCommit;
     currCommit.save(); //for future persistent
+    CommitIndex.add(currCommit.getSha1());
+    CommitGraph.add(currCommit);
+    MessageIndex.add(currCommit);
   }
 
   /**
@@ -76,96 +95,147 @@ public class Gitlet {
    */
   private static void setHEAD(String branch) {
     String branchPath = join("refs", "heads", branch).getPath();
-    Utils.writeContents(HEAD, branchPath);
+    Durable.replace(HEAD, branchPath.getBytes(StandardCharsets.UTF_8));
   }
 
   /**
-   * Adds a copy of the file as it currently exists to the staging area.
+   * Adds a copy of each file as it currently exists to the staging area. PATHS are file names,
+   * directories, which stand for every file under them, glob patterns such as "*.txt" matched
+   * against the files in the working directory, or "-A" for every file in the working directory.
+   * For a directory or "-A", tracked files that are gone are staged for removal. Paths are taken
+   * relative to the repository root, so "./a.txt" and "d//a.txt" name "a.txt" and "d/a.txt".
+   * The stage and the current commit are read once for the whole batch, the files are hashed and
+   * their blobs saved in parallel, and the stage is saved once. Nothing is staged if a path
+   * matches no file.
    */
-  public static void add(String filename) throws IOException {
-    //get the file from working directory
-    File fileInWorkingDirectory = Utils.join(CWD, filename);
-    if (!fileInWorkingDirectory.exists()) {
-      System.out.println("File does not exist.");
-      System.exit(0);
-    }
-
-    //create the specific blob object
-    Blob addedBlob = new Blob(fileInWorkingDirectory);
-    //String addedBlobFileName = addedBlob.getWorkingDirectoryFilePath();
-    String addedBlobID = addedBlob.getHash();
-
-    //get the stage object from the file
-    Stage stage = readObject(STAGES_FILE, Stage.class);
-
-    //get the current commit object from the file
+  public static void add(List<String> paths) throws IOException {
+    List<String> workingFiles = Repository.workingFiles();
+    Stage stage = Stage.read();
     currCommit = retrieveCurrentCommit();
 
-    // whether the current commit contains the file with the same name, if contains:
-    if (currCommit.getTracked().containsKey(filename)) {//get(addedBlobFileName).equals(addedBlobID)) {
-
-      //when the new blob id is same as the current commit tracked blob id, don't add it.
-      //remove it from the staging area if it is already there
-      if (currCommit.getTracked().get(filename).equals(addedBlobID)) {
-        if (!stage.getAddStage().isEmpty()) {
-          if (stage.getAddStage().get(filename).equals(addedBlobID)) {
-            stage.getAddStage().remove(filename);
+    //resolve the paths into file names, in order and without duplicates
+    Set<String> filenames = new LinkedHashSet<>();
+    Set<String> gone = new TreeSet<>();
+    for (String path : paths) {
+      if (path.equals("-A")) {
+        filenames.addAll(workingFiles);
+        gone.addAll(currCommit.getTracked().keySet());
+        gone.addAll(stage.getAddStage().keySet());
+        continue;
+      }
+      String name = Repository.normalizePath(path);
+      File file = name == null ? null : Utils.join(CWD, name);
+      boolean matched = false;
+      if (name != null && isGlob(name)) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + name);
+        for (String filename : workingFiles) {
+          if (matcher.matches(Paths.get(filename))) {
+            filenames.add(filename);
+            matched = true;
+          }
+        }
+      } else if (file != null && file.isFile()) {
+        filenames.add(name);
+        matched = true;
+      } else if (file != null && file.isDirectory()) {
+        matched = true;
+        String prefix = name.isEmpty() ? "" : name + "/";
+        filenames.addAll(Repository.workingFiles(file, prefix));
+        for (Set<String> known : List.of(currCommit.getTracked().keySet(),
+            stage.getAddStage().keySet())) {
+          for (String filename : known) {
+            if (filename.startsWith(prefix)) {
+              gone.add(filename);
+            }
           }
-        } else if (stage.getRemoveStage().contains(filename)) {
-          stage.getRemoveStage().remove(filename);
         }
       }
-
-      //new blob id is different from the current commit tracked blob id, put the blob in stage
-      //for addition area
-      else {
-        addedBlob.saveBlob();
-        stage.stageForAdditionUpdateBlob(filename, addedBlobID);
-
+      if (!matched) {
+        System.out.println("File does not exist.");
+        Utils.exit(0);
       }
     }
+    gone.removeAll(workingFiles);
 
-    //not contains
-    else {
-      //when stage for addition contains the blob:
-      if (stage.getAddStage().containsKey(filename)) {
-        //working directory's blob's content changed, already-staged file overwrites the previous
-        // entry in the staging area with the new contents.
-        if (!stage.getAddStage().get(filename).equals(addedBlobID)) {
-          addedBlob.saveBlob();
-          stage.stageForAdditionUpdateBlob(filename, addedBlobID);
-        }
+    //the blob ids come from the stage's stat cache, only changed files are hashed
+    List<String> names = new ArrayList<>(filenames);
+    List<String> addedBlobIDs = stage.blobIDs(names);
+    Map<String, String> toSave = new HashMap<>();
+    for (int i = 0; i < names.size(); i++) {
+      if (stageFile(stage, names.get(i), addedBlobIDs.get(i))) {
+        //one file per blob id, so no two threads write the same blob
+        toSave.putIfAbsent(addedBlobIDs.get(i), names.get(i));
       }
+    }
+    ParallelScan.map(new ArrayList<>(toSave.keySet()), id -> {
+      saveBlob(Utils.join(CWD, toSave.get(id)), id);
+      return id;
+    });
 
-      //when the current commit doesn't contain the blob with the same name, meaning the
-      //blob is first time created and added.
-      else {
-        addedBlob.saveBlob();
-        stage.stageForAddition(filename, addedBlobID);
+    for (String filename : gone) {
+      stage.remove(filename);
+      if (currCommit.getTracked().containsKey(filename)
+          && !stage.getRemoveStage().contains(filename)) {
+        stage.stageForRemoval(filename);
       }
-
     }
     // save stage obj
     stage.save();
   }
 
+  /**
+   * Helper method for add, stage FILENAME, whose contents have the blob id ADDEDBLOBID. Returns
+   * true if the file's blob has to be saved.
+   */
+  private static boolean stageFile(Stage stage, String filename, String addedBlobID) {
+    //the file is no longer staged for removal either way
+    stage.getRemoveStage().remove(filename);
+
+    //when the new blob id is same as the current commit tracked blob id, don't add it.
+    //remove it from the staging area if it is already there
+    if (addedBlobID.equals(currCommit.getTracked().get(filename))) {
+      stage.remove(filename);
+      return false;
+    }
+
+    //new or changed file, put the blob in stage for addition area, overwriting an already-staged
+    //entry with the new contents
+    if (addedBlobID.equals(stage.getAddStage().get(filename))) {
+      return false;
+    }
+    stage.stageForAdditionUpdateBlob(filename, addedBlobID);
+    return true;
+  }
+
+  /** Return true if PATH is a glob pattern rather than a file name. */
+  private static boolean isGlob(String path) {
+    return path.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0);
+  }
+
+  /**
+   * Helper method for add, save the blob of the file unless a blob with its id is already saved.
+   * Only then is the file read again.
+   */
+  private static void saveBlob(File file, String blobID) throws IOException {
+    if (!Blob.exists(blobID)) {
+      new Blob(file).saveBlob();
+    }
+  }
+
   /**
    * Return the current commit, from the HEAD FILE get the latest commit sha1.
    */
   private static Commit retrieveCurrentCommit() {
-    String commitPath = readContentsAsString(HEAD); //HEAD points to the latest commit, refs/heads/master
-    File latestCommit = Utils.join(GITLET_DIR, commitPath);
-    String hash = readContentsAsString(latestCommit);
-    return retrieveCommit(hash);
+    //HEAD names the current branch, refs/heads/master, whose tip is the latest commit
+    return retrieveCommit(Refs.read(Refs.current()));
   }
 
   /**
    * Helper method, to retrieve the commit when having the sha1 code from HEAD. Get the commit file
-   * from objects/commits
+   * from objects/commits, or from the packs
    */
   private static Commit retrieveCommit(String hash) {
-    File cPath = join(commits, hash);
-    return Utils.readObject(cPath, Commit.class);
+    return Commit.read(hash);
   }
 
   /**
@@ -174,10 +244,10 @@ public class Gitlet {
    */
   public static void commit(String message) throws IOException {
     //first, check whether the commit is valid, meaning whether it is in stage for addition
-    Stage stage = Utils.readObject(STAGES_FILE, Stage.class);
+    Stage stage = Stage.read();
     if (stage.getAddStage().isEmpty() && stage.getRemoveStage().isEmpty()) {
       System.out.println("No changes added to the commit.");
-      System.exit(0);
+      Utils.exit(0);
     }
 
     //then generate a new commit, parent is the previous commit,clone the previous commit for the first time commit
@@ -187,14 +257,14 @@ public class Gitlet {
 
     //New commit tracked the saved files. By default, each commit's snapshot will be exactly the same as its parents,
     //it will keep versions of files exactly as they are, and not update them
-    currCommit.setTracked(parentCommit.getTracked());
+    currCommit.setTracked(parentCommit);
 
     //update the contents of files it is tracking that have been staged for addition at the time of commit,
     //save and start tracking any files that were staged for addition but not tracked by its parent
-    updateStageToCommit(currCommit);
+    updateStageToCommit(currCommit, stage);
 
     //files tracked in the current commit may be untracked in the new commit, as the result of being staged for removal.
-    updateStageForRemovalToCommit(currCommit);
+    updateStageForRemovalToCommit(currCommit, stage);
 
     //submit the commit,and master points to new commit
     currBranch = readCurrBranch();
@@ -211,14 +281,13 @@ public class Gitlet {
    * Get the current branch.
    */
   private static String readCurrBranch() {
-    return readContentsAsString(HEAD);
+    return Refs.current();
   }
 
 
   /** Update and start tracking any files that were staged for addition, but weren't tracked by
    * it's parent commit.  */
-  private static void updateStageToCommit(Commit newCommit) {
-    Stage currStage = Utils.readObject(STAGES_FILE, Stage.class);
+  private static void updateStageToCommit(Commit newCommit, Stage currStage) {
     Map<String,String> addStageArea = currStage.getAddStage();
     for (String key: addStageArea.keySet()) {
       newCommit.addTracked(key, addStageArea.get(key));
@@ -226,8 +295,7 @@ public class Gitlet {
   }
 
   /** Untracked the file in stage for removal area, if user first uses rm command. */
-  private static void updateStageForRemovalToCommit(Commit newCommit) {
-    Stage currStage = Utils.readObject(STAGES_FILE, Stage.class);
+  private static void updateStageForRemovalToCommit(Commit newCommit, Stage currStage) {
     for (String filename: currStage.getRemoveStage()) {
       newCommit.untracked(filename);
     }
@@ -237,22 +305,29 @@ public class Gitlet {
    * make the HEAD points to the latest commit. */
   private static void submitCommit(Commit commit, String branch) throws IOException {
     String commitSha1 = commit.getSha1();
-    File currentCommit = Utils.join(commits, commitSha1); // name a file of commit first
-    currentCommit.createNewFile(); //create a new file under object folder
-    Utils.writeObject(currentCommit, commit); //write the commit in the file
-    commit.save();
+    commit.save(); //write the commit under the object folder
+    CommitIndex.add(commitSha1);
+    CommitGraph.add(commit);
+    MessageIndex.add(commit);
 
     // update the refs/heads/branch to current commit, it writes the latest commit sha1
-    File headsFile = join(GITLET_DIR, branch);
-    headsFile.createNewFile();
-    Utils.writeContents(headsFile, commitSha1);
+    String reason = (commit.getSecond_parent().isEmpty() ? "commit: " : "commit (merge): ")
+        + commit.getMessage();
+    Refs.logHead(commit.getParent(), commitSha1, reason);
+    Refs.update(branch, commitSha1, reason);
   }
 
 
   /** Rm command, unstage the file if it is currently in staged for addition. If the file is
-   * tracked in current commit, stage it for removal and remove it in CWD.*/
-  public static void rm(String filename) throws IOException {
-    Stage stage = Utils.readObject(STAGES_FILE, Stage.class);
+   * tracked in current commit, stage it for removal and remove it in CWD. PATH is taken relative
+   * to the repository root, as in add.*/
+  public static void rm(String path) throws IOException {
+    String filename = Repository.normalizePath(path);
+    if (filename == null) {
+      System.out.println("No reason to remove the file.");
+      Utils.exit(0);
+    }
+    Stage stage = Stage.read();
     File fileInWorkingDirectory = Utils.join(CWD, filename);
     currCommit = retrieveCurrentCommit();
 
@@ -267,7 +342,7 @@ public class Gitlet {
         currCommit.getTracked().containsKey(filename)) {
       stage.stageForRemoval(filename);
       //remove it from CWD
-      Utils.restrictedDelete(fileInWorkingDirectory);
+      Checkout.remove(filename);
     }
 
     //stage it for removal, if the file istracked in current commit,but not exists in CWD
@@ -279,67 +354,86 @@ public class Gitlet {
     //fail: file is neither staged nor tracked by the head commit
     else {
       System.out.println("No reason to remove the file.");
-      System.exit(0);
+      Utils.exit(0);
     }
 
     //save the stage, after the rm command
     stage.save();
   }
 
-  /** Log command. List the commit information. Until it reaches the init commit.  */
-  public static void log() {
+  /** Log command. List the commit information, following the first parents until it reaches the
+   * init commit. OPTIONS choose the commits and the format, see LogOptions. The walk stops once
+   * -n commits are printed, or at the first commit older than --since. Output goes through one
+   * buffered writer. */
+  public static void log(List<String> options) {
+    LogOptions logOptions = LogOptions.parse(options);
+    PrintWriter out = LogOptions.output();
     currCommit = retrieveCurrentCommit();
     Commit commitIterator = currCommit;
+    int printed = 0;
 
-    while(!commitIterator.getParent().equals("")) {
-      logPrint(commitIterator);
+    while (printed < logOptions.limit() && !logOptions.tooOld(commitIterator)) {
+      if (logOptions.inRange(commitIterator)) {
+        logOptions.print(commitIterator, out);
+        printed++;
+      }
+      if (commitIterator.getParent().equals("")) {
+        break;
+      }
       commitIterator = retrieveCommit(commitIterator.getParent());
     }
-    System.out.println("===");
-    System.out.println("commit "  + commitIterator.getSha1());
-    System.out.println("Date: " + commitIterator.getTimestamp());
-    System.out.println(commitIterator.getMessage() + "\n");
-
-  }
-
-
-  /** Log print information helper function. */
-  private static void logPrint(Commit commit) {
-    System.out.println("===");
-    System.out.println("commit "  + commit.getSha1());
-    if (!commit.getSecond_parent().isEmpty()) {
-      System.out.println("Merge: " + commit.getParent().substring(0,6) + " " + commit.getSecond_parent().substring(0,6));
-    }
-    System.out.println("Date: " + commit.getTimestamp());
-    System.out.println(commit.getMessage() + "\n");
+    out.flush();
   }
 
   /** Like log, except displays information about all commits ever made. The order of the commits
    * does not matter.*/
-  public static void global_log() {
-    List<String> commitRecord = Utils.plainFilenamesIn(commits);
-    for (String sha1: commitRecord) {
-      Commit currCommit = retrieveCommit(sha1);
-      logPrint(currCommit);
+  public static void global_log(List<String> options) {
+    LogOptions logOptions = LogOptions.parse(options);
+    PrintWriter out = LogOptions.output();
+    int printed = 0;
+    for (Commit currCommit: MessageIndex.commits()) {
+      if (printed == logOptions.limit()) {
+        break;
+      }
+      if (logOptions.inRange(currCommit)) {
+        logOptions.print(currCommit, out);
+        printed++;
+      }
     }
+    out.flush();
   }
 
   /** Prints out the ids of all commits that have the given commit message, one per line.
    * If there are multiple such commits, prints the id on separate lines. Note: it
-   * doesn't exist in real git. */
-  public static void find(String commitMessage) {
-    List<String> commitRecord = Utils.plainFilenamesIn(commits);
-    List<String> ids = new ArrayList<>();
-    for (String sha1: commitRecord) {
-      Commit currCommit = retrieveCommit(sha1);
-      if (currCommit.getMessage().equals(commitMessage)) {
-        ids.add(currCommit.getSha1());
+   * doesn't exist in real git. With MODE "--substring" it prints the commits whose message
+   * contains COMMITMESSAGE, and with "--regex" those whose message has a match of the
+   * regular expression COMMITMESSAGE. The ids come from the message index, in the order
+   * the commits were made. */
+  public static void find(String mode, String commitMessage) {
+    List<String> ids;
+    if (mode == null) {
+      ids = MessageIndex.find(commitMessage);
+    } else if (mode.equals("--substring")) {
+      ids = MessageIndex.findMatching(message -> message.contains(commitMessage));
+    } else if (mode.equals("--regex")) {
+      Pattern pattern = null;
+      try {
+        pattern = Pattern.compile(commitMessage);
+      } catch (PatternSyntaxException excp) {
+        System.out.println("Incorrect operands.");
+        Utils.exit(0);
       }
+      Pattern regex = pattern;
+      ids = MessageIndex.findMatching(message -> regex.matcher(message).find());
+    } else {
+      System.out.println("Incorrect operands.");
+      Utils.exit(0);
+      return;
     }
 
     if (ids.isEmpty()) {
       System.out.println("Found no commit with that message.");
-      System.exit(0);
+      Utils.exit(0);
     }
     else {
       for (String id: ids) {
@@ -350,22 +444,27 @@ public class Gitlet {
 
   /** Displays what branches currently exists, and mark the current branch with a *. Also displays
    * what files have been staged for addition or removal. */
-  public static void status() {
+  public static void status() throws IOException {
+    //the stage and the head commit are read once, and shared by the helpers
+    Stage stage = Stage.read();
+    currCommit = retrieveCurrentCommit();
     branchStatus();
-    stageStatus();
-    notStagedFileStatus();
-    untrackedStatus();
+    stageStatus(stage);
+    notStagedFileStatus(stage, currCommit);
+    untrackedStatus(stage, currCommit);
+    //keep what was hashed, so the next status reads only files that change
+    stage.saveIfStatChanged();
   }
 
   /** Status helper function, prints the branch status. */
   private static void branchStatus() {
     System.out.println("=== Branches ===");
     currBranch = readCurrBranch();
-    String cBranch = currBranch.substring(currBranch.lastIndexOf("\\") +1);
+    String cBranch = currBranch;
     System.out.println("*" + cBranch);
 
-    //other branches, all branches are stored in refs/heads
-    List<String> allBranches = Utils.plainFilenamesIn(heads);
+    //other branches, all branches are stored in refs/heads or packed-refs
+    List<String> allBranches = Refs.names();
     if (allBranches.size() > 1) {
       for (String branch: allBranches) {
         if (!branch.equals(cBranch)) {
@@ -378,8 +477,7 @@ public class Gitlet {
 
 
   /** Status helper function, prints the stage status. */
-  private static void stageStatus() {
-    Stage currStage = Utils.readObject(STAGES_FILE, Stage.class);
+  private static void stageStatus(Stage currStage) {
 
     System.out.println("=== Staged Files ==="); //stage for addition
     Map<String, String> addStage = currStage.getAddStage();
@@ -405,31 +503,33 @@ public class Gitlet {
 
   /** Status helper function, prints the modification files in CWD, but not staged for commit.
    * Modified in CWD but not use add command,  */
-  private static void notStagedFileStatus() {
+  private static void notStagedFileStatus(Stage stage, Commit headCommit) throws IOException {
     System.out.println("=== Modifications Not Staged For Commit ===");
-    Stage stage = Utils.readObject(STAGES_FILE, Stage.class);
-    currCommit = retrieveCurrentCommit();
-    List<String> fileInCWD = Utils.plainFilenamesIn(CWD);
-    Map<String, String> trackedByCommit = currCommit.getTracked();
+    List<String> fileInCWD = Repository.workingFiles();
+    Map<String, String> trackedByCommit = headCommit.getTracked();
     Map<String, String> trackedByAddStage= stage.getAddStage();
     List<String> trackedByRemovedStage = stage.getRemoveStage();
 
 
-    for (String file: fileInCWD) {
-      Blob blob = new Blob (Utils.join(CWD, file));
+    //only files whose stat data changed since they were last hashed are read, in parallel
+    List<String> blobIDs = stage.blobIDs(fileInCWD);
+    for (int i = 0; i < fileInCWD.size(); i++) {
+      String file = fileInCWD.get(i);
+      String blobID = blobIDs.get(i);
 
       //tracked by current commit, changed in CWD, but not staged.
       if (trackedByCommit.containsKey(file)) {
-        if (!trackedByAddStage.containsKey(file) && !trackedByCommit.get(file).equals(blob.getHash())) {
+        if (!trackedByAddStage.containsKey(file) && !trackedByCommit.get(file).equals(blobID)) {
           System.out.println(file + " (modified)");
         }
       }
 
       //staged for addition, but with different contents than in CWD
-      if (trackedByAddStage.containsKey(file) && !trackedByAddStage.get(file).equals(blob.getHash())) {
+      if (trackedByAddStage.containsKey(file) && !trackedByAddStage.get(file).equals(blobID)) {
         System.out.println(file + " (modified)");
       }
     }
+    stage.pruneStatCache(fileInCWD);
 
     //staged for addition, but delete in CWD
     for (String file: trackedByAddStage.keySet()) {
@@ -449,13 +549,11 @@ public class Gitlet {
 
 
   /** Status helper function, prints the untracked status. */
-  private static void untrackedStatus() {
+  private static void untrackedStatus(Stage stage, Commit headCommit) {
     System.out.println("=== Untracked Files ===");
-    Stage stage = Utils.readObject(STAGES_FILE, Stage.class);
-    currCommit = retrieveCurrentCommit();
-    List<String> fileInCWD = Utils.plainFilenamesIn(CWD);
+    List<String> fileInCWD = Repository.workingFiles();
     for (String file: fileInCWD) {
-      if (!currCommit.getTracked().containsKey(file) && !stage.getRemoveStage().contains(file)
+      if (!headCommit.getTracked().containsKey(file) && !stage.getRemoveStage().contains(file)
           && !stage.getAddStage().containsKey(file)) {
         System.out.println(file);
       }
@@ -475,27 +573,21 @@ public class Gitlet {
   }
 
 
-  /** Helper method for the checkout case 1, and can be used in checkout case 2. */
+  /** Helper method for the checkout case 1, and can be used in checkout case 2. PATH is taken
+   * relative to the repository root, as in add. */
 
-  private static void checkoutHelper(String filename, Commit commit) throws IOException {
-    if (commit.getTracked().containsKey(filename)) {
+  private static void checkoutHelper(String path, Commit commit) throws IOException {
+    String filename = Repository.normalizePath(path);
+    if (filename != null && commit.getTracked().containsKey(filename)) {
       String blobSha1 = commit.getTracked().get(filename);
-      File originInBlob = Utils.join(blobs, blobSha1);
-      Blob blob = Utils.readObject(originInBlob, Blob.class);
-      byte[] contents = blob.getContents();
       File fileInCWD = Utils.join(CWD, filename);
-
-      if (!fileInCWD.exists()) {
-        fileInCWD.createNewFile();
-        Utils.writeContents(fileInCWD, new String(contents, StandardCharsets.UTF_8));
-      } else {
-        Utils.writeContents(fileInCWD, new String(contents, StandardCharsets.UTF_8));
-      }
+      //streamed, so a file of any size is checked out in constant memory
+      Blob.writeTo(blobSha1, fileInCWD);
     }
 
     else {
       System.out.println("File does not exist in that commit.");
-      System.exit(0);
+      Utils.exit(0);
     }
   }
 
@@ -503,29 +595,8 @@ public class Gitlet {
    * put it in the working directory, overwriting the version of file that's already there if there
    * is one. The new version of file is not staged. */
   public static void checkout(String commitID, String filename) throws IOException {
-    currCommit = retrieveCurrentCommit();
-    Commit commitIterator = currCommit;
-
-    if (currCommit.getSha1().equals(commitID)) {
-      checkoutHelper(filename, currCommit);
-    }
-
-    else {
-      while (!commitIterator.getParent().equals("")) {
-        if (commitIterator.getParent().equals(commitID)) {
-          String parentID = commitIterator.getParent();
-          commitIterator = retrieveCommit(parentID);
-          checkoutHelper(filename, commitIterator);
-          return;
-
-        } else {
-          String parentID = commitIterator.getParent();
-          commitIterator = retrieveCommit(parentID);
-        }
-      }
-      System.out.println("No commit with that id exists.");
-      System.exit(0);
-    }
+    Commit commit = retrieveCommit(resolveCommitID(commitID));
+    checkoutHelper(filename, commit);
   }
 
   /** Case 3 checkout. Takes all files in the commit at the head of given branch, and puts them in CWD.
@@ -538,31 +609,21 @@ public class Gitlet {
     checkBranchExists(branchName);
 
     currCommit = retrieveCurrentCommit();
-    currBranch = branchName;
-    setHEAD(currBranch);     //move the HEAD pointer to checkout branch
-    Commit target = retrieveCurrentCommit(); //commit under checkout branch
-
-    //file tracked by both current commit and target commit
-    List<String> fileTrackedBoth = findFileBothTracked(currCommit, target);
+    String fromBranch = readCurrBranch();
+    Commit target = retrieveCommit(Refs.read(branchName)); //commit under checkout branch
 
-    //compare the both tracked file's blobID, if different, CWD overwrite the file same as file
-    // tracked by target
-    compareTrackedFiles(fileTrackedBoth, currCommit, target);
+    //only the files that differ between the two commits, or from their working copy, are
+    //deleted or written, and an untracked file in the way aborts before anything, HEAD included,
+    //is changed
+    Stage stage = Stage.read();
+    Checkout.run(currCommit.getTracked(), target.getTracked(), stage);
 
-    //file only tracked by current commit, not the target commit
-    List<String> fileOnlyTrackedByCurr = findFileOnlyTrackedByCurr(currCommit,target);
-    //delete them in CWD directly
-    for (String file: fileOnlyTrackedByCurr) {
-      File fileInCWD = Utils.join(CWD, file);
-      Utils.restrictedDelete(fileInCWD);
-    }
-
-    //file only tracked by target commit, not current commit.
-    List<String> fileOnlyTrackedByTarget = findFileOnlyTrackedByTarget(currCommit, target); //
-    putIntoCWD(fileOnlyTrackedByTarget, target);
+    currBranch = branchName;
+    setHEAD(currBranch);     //move the HEAD pointer to checkout branch
+    Refs.logHead(currCommit.getSha1(), target.getSha1(),
+        "checkout: moving from " + fromBranch + " to " + branchName);
 
-    //clear the stages
-    Stage stage = Utils.readObject(STAGES_FILE, Stage.class);
+    //clear the stages, the stat cache keeps what the checkout hashed
     stage.clear();
     stage.save();
   }
@@ -570,143 +631,38 @@ public class Gitlet {
   /** Helper method, check whether the checkout branch is the current branch. */
   private static void checkCurrentBranch(String branchName) {
     currBranch = readCurrBranch();
-    String cBranch = currBranch.substring(currBranch.lastIndexOf("\\") +1);
+    String cBranch = currBranch;
     if (cBranch.equals(branchName)) {
       System.out.println("No need to checkout the current branch.");
-      System.exit(0);
+      Utils.exit(0);
     }
   }
 
   /** Helper method, check whether the branch exists in .gitlet. */
   private static void checkBranchExists(String branchName) {
-    List<String> branchList = Utils.plainFilenamesIn(heads);
-    if (!branchList.contains(branchName)) {
+    if (!Refs.exists(branchName)) {
       System.out.println("No such branch exists.");
-      System.exit(0);
-    }
-  }
-
-  /** Helper method, find the file both tracked in current commit and target commit. */
-  private static List<String> findFileBothTracked(Commit curr, Commit target) {
-    List<String> fileTrackedByBoth = new ArrayList<>();
-    for (String file: curr.getTracked().keySet()) {
-      for (String key: target.getTracked().keySet()) {
-        if (file.equals(key)) {
-          fileTrackedByBoth.add(file);
-        }
-      }
+      Utils.exit(0);
     }
-    return fileTrackedByBoth;
   }
 
-  /** Helper method, find the file just tracked by current commit. */
-  private static List<String> findFileOnlyTrackedByCurr(Commit curr, Commit commit) {
-
-    List<String> fileTrackedOnlyByCurr = new ArrayList<>();
-    if (commit.getTracked().keySet().isEmpty()) {
-      for (String file: curr.getTracked().keySet()) {
-        fileTrackedOnlyByCurr.add(file);
-      }
-    }
-
-    for (String file: curr.getTracked().keySet()) {
-      if (!commit.getTracked().keySet().contains(file)) {
-        fileTrackedOnlyByCurr.add(file);
-      }
-    }
-    return  fileTrackedOnlyByCurr;
-  }
-
-  /** Helper method, find the file just tracked by target commit. */
-  private static List<String> findFileOnlyTrackedByTarget(Commit curr, Commit commit) {
-    List<String> fileTrackedOnlyByTarget = new ArrayList<>();
-    if (curr.getTracked().keySet().isEmpty()) {
-      for (String file: commit.getTracked().keySet()){
-        fileTrackedOnlyByTarget.add(file);
-      }
-      return fileTrackedOnlyByTarget;
-    }
-
-    for (String file: commit.getTracked().keySet()) {
-      if (! curr.getTracked().keySet().contains(file)) {
-        fileTrackedOnlyByTarget.add(file);
-      }
-    }
-    return  fileTrackedOnlyByTarget;
-  }
-
-  /** Helper method, used for compare both tracked files in two commits, if different,
-   * CWD overwrite the file same as file tracked by target*/
-  private static void compareTrackedFiles(List<String> fileTrackedByBoth, Commit cCommit, Commit target) {
-    for (String file : fileTrackedByBoth) {
-      String blobSha1InCurrCommit = cCommit.getTracked().get(file);
-      String blobSha1InTargetCommit = target.getTracked().get(file);
-      if (!blobSha1InCurrCommit.equals(blobSha1InTargetCommit)) {
-        File fileInCWD = Utils.join(CWD, file);
-        File blobInTarget = Utils.join(blobs, blobSha1InTargetCommit);
-        byte[] contents = Utils.readContents(blobInTarget);
-        Utils.writeContents(fileInCWD, new String(contents, StandardCharsets.UTF_8));
-      }
-    }
-  }
-
-
-  /** Helper method. Put the file only tracked by target commit into the CWD. Raise error if there
-   * are untracked files in CWD. */
-  private static void putIntoCWD(List<String> fileOnlyTrackedByTarget, Commit target)
-      throws IOException {
-
-    if (fileOnlyTrackedByTarget.isEmpty()) {
-      return;
-    }
-
-    //Put the target commit tracked files in CWD.
-    for (String file: fileOnlyTrackedByTarget) {
-      File fileInCWD = Utils.join(CWD, file);
-      //If the CWD exists the file with the same name, meaning it is untracked.
-      if (fileInCWD.exists()) {
-        System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-        System.exit(0);
-      }
-
-      //otherwise, it is tracked.
-      fileInCWD.createNewFile();
-      String blobSha1InTargetCommit = target.getTracked().get(file);
-
-      File blobInTarget = Utils.join(blobs, blobSha1InTargetCommit);
-      Blob b =readObject(blobInTarget, Blob.class);
-      Utils.writeContents(fileInCWD, new String(b.getContents(), StandardCharsets.UTF_8));
-/*    byte[] contents = Utils.readContents(blobInTarget);
-      Utils.writeContents(fileInCWD, new String(contents, StandardCharsets.UTF_8));
-      //    It will cause GBK failed in test
-      */
-    }
-  }
-
-
   /** Creates a new branch with a given name, and points at the current head commit. A name for
    * reference (sha1 identifier) to a commit node. This command doesn't switch to the newly created
    * branch. Default branch is master/main. */
   public static void branch(String branchName) throws IOException {
     checkBranchAlreadyExist(branchName);
 
-    File newBranch = Utils.join(heads, branchName);
-    newBranch.createNewFile();
-
     //points to the HEAD pointer pointed commit
     currCommit = retrieveCurrentCommit();
     String commitSha1 = currCommit.getSha1();
-    Utils.writeContents(newBranch, commitSha1);
+    Refs.update(branchName, commitSha1, "branch: Created from " + readCurrBranch());
   }
 
   /** Helper method, check whether the branch is already exists in .gitlet. */
   private static void checkBranchAlreadyExist(String branchName) {
-    List<String> branchList = Utils.plainFilenamesIn(heads);
-    for (String branch: branchList) {
-      if (branch.equals(branchName)) {
-        System.out.println("A branch with that name already exists.");
-        System.exit(0);
-      }
+    if (Refs.exists(branchName)) {
+      System.out.println("A branch with that name already exists.");
+      Utils.exit(0);
     }
   }
 
@@ -715,24 +671,22 @@ public class Gitlet {
   public static void rm_branch(String branchName) {
     checkWhetherBranchExists(branchName);
 
-    currBranch = readCurrBranch();                 //refs/heads/cBranch
-    String cBranch = currBranch.substring(currBranch.lastIndexOf("\\")+1);
+    currBranch = readCurrBranch();
+    String cBranch = currBranch;
     if (branchName.equals(cBranch)) {
       System.out.println("Cannot remove the current branch.");
-      System.exit(0);
+      Utils.exit(0);
     }
 
-    File deleteBranch = Utils.join(heads, branchName);
-    deleteBranch.delete(); //Utils.restrictDelete mainly used to delete CWD files.
+    Refs.delete(branchName); //Utils.restrictDelete mainly used to delete CWD files.
   }
 
 
   /** Helper method, check whether the removed branch is exists, if not, aborts.*/
   private static void checkWhetherBranchExists(String branchName) {
-    List<String> branchList = Utils.plainFilenamesIn(heads);
-    if (! branchList.contains(branchName)) {
+    if (!Refs.exists(branchName)) {
       Utils.message("A branch with that name does not exist.");
-      System.exit(0);
+      Utils.exit(0);
     }
   }
 
@@ -741,241 +695,144 @@ public class Gitlet {
    * area is cleared. Similar to a checkout commit, but the current branch head is also changed.
    * Updating the index/stage, moving the head. */
   public static void reset(String commitID) throws IOException {
-    checkCommitExists(commitID);
+    commitID = resolveCommitID(commitID);
 
     //remove tracked files in current commit that are not presented in reset target commit.
     currCommit = retrieveCurrentCommit();
     Commit resetTarget = retrieveCommit(commitID);
 
-    List<String> fileTrackedByBoth = findFileBothTracked(currCommit, resetTarget);
-    compareTrackedFiles(fileTrackedByBoth, currCommit, resetTarget);  //overwrite
-
-    List<String> fileOnlyTrackedByCurr = findFileOnlyTrackedByCurr(currCommit, resetTarget);
-    for (String file: fileOnlyTrackedByCurr) {
-      Utils.restrictedDelete(file);
-    }
-
-    List<String> fileOnlyTrackedByReset = findFileOnlyTrackedByTarget(currCommit,resetTarget);
-    //This method considered the untracked files error
-    putIntoCWD(fileOnlyTrackedByReset, resetTarget);
+    //only the files that differ, between the commits or from their working copy, are touched.
+    //This aborts on an untracked file in the way
+    Stage stage = Stage.read();
+    Checkout.run(currCommit.getTracked(), resetTarget.getTracked(), stage);
 
     //moving the current branch points to the reset target commit.
-    currBranch = readCurrBranch();  //refs/heads/master
-    String cBranch = currBranch.substring(currBranch.lastIndexOf("\\")+1); //master
-    File headsFile = Utils.join(heads, cBranch);
-    headsFile.createNewFile();
-    Utils.writeContents(headsFile, commitID);
+    currBranch = readCurrBranch();
+    String cBranch = currBranch;
+    Refs.logHead(currCommit.getSha1(), commitID, "reset: moving to " + commitID);
+    Refs.update(cBranch, commitID, "reset: moving to " + commitID);
 
     //moving the HEAD to reset commit as well
     setHEAD(cBranch);
 
-    //clear the staging area
-    Stage stage = Utils.readObject(STAGES_FILE, Stage.class);
+    //clear the staging area, the stat cache keeps what the checkout hashed
     stage.clear();
     stage.save();
   }
 
-  /** Helper method, check whether the commit exists with that commitID. */
-  private static void checkCommitExists(String commitID) {
-    List<String> commitList = Utils.plainFilenamesIn(commits);
-    if (! commitList.contains(commitID)) {
+  /** Helper method, return the full id of the commit named by commitID, which is either a full
+   * id or a unique prefix of at least 4 hex digits. A full id is checked with one stat of its
+   * loose file or one probe of each pack index, a prefix with a binary search of the commit index.
+   * Aborts if no commit, or more than one, has that id. */
+  private static String resolveCommitID(String commitID) {
+    if (Repository.hasObject(commits, commitID) || Pack.contains(commitID)) {
+      return commitID;
+    }
+    List<String> matches = CommitIndex.matches(commitID, 2);
+    if (matches.isEmpty()) {
       System.out.println("No commit with that id exists.");
-      System.exit(0);
+      Utils.exit(0);
+    }
+    if (matches.size() > 1) {
+      System.out.println("Ambiguous commit id.");
+      Utils.exit(0);
     }
+    return matches.get(0);
   }
 
 
   /** Merge command, merge files from the given branch to the current branch. */
   public static void merge(String givenBranch) throws IOException {
-    Stage stage = readObject(STAGES_FILE, Stage.class);
+    Stage stage = Stage.read();
     if (!stage.getAddStage().isEmpty() || !stage.getRemoveStage().isEmpty()) {
       System.out.println("You have uncommitted changes.");
-      System.exit(0);
+      Utils.exit(0);
     }
 
     checkWhetherBranchExists(givenBranch);
     currBranch = readCurrBranch();
-    String cBranch = currBranch.substring(currBranch.lastIndexOf("\\")+1);
+    String cBranch = currBranch;
     if (cBranch.equals(givenBranch)) {
       System.out.println("Cannot merge a branch with itself.");
-      System.exit(0);
+      Utils.exit(0);
     }
 
     currCommit = retrieveCurrentCommit();
     for (String fileInCWD :
-        Objects.requireNonNull(plainFilenamesIn(CWD))) {
+        Repository.workingFiles()) {
       if (!currCommit.getTracked().containsKey(fileInCWD)){
         if (!stage.getAddStage().containsKey(fileInCWD)){
           message("There is an untracked file in the way; delete it, or add and commit it first.");
-          System.exit(0);
+          Utils.exit(0);
         }
       }
       if (stage.getRemoveStage().contains(fileInCWD)){
         message("There is an untracked file in the way; delete it, or add and commit it first.");
-        System.exit(0);
+        Utils.exit(0);
       }
     }
 
     String message = "Merged " + givenBranch + " into " + cBranch + ".";
-    File givenBranchPoint = Utils.join(heads, givenBranch);
-    String givenBranchHash = Utils.readContentsAsString(givenBranchPoint);
+    String givenBranchHash = Refs.read(givenBranch);
 
     Commit givenBranchCommit = retrieveCommit(givenBranchHash);  //commit pointed by branchName
     Commit splitCommit = findSplitCommit(currCommit, givenBranchCommit);
 
     checkWhetherMergeFinished(splitCommit, givenBranchCommit);
-    checkWhetherFastForward(splitCommit, currCommit, givenBranch);
-
-    Map<String, String> splitMap = getCommitMap(splitCommit);
-    Map<String, String> currentCommitMap = getCommitMap(currCommit);
-    Map<String, String> givenCommitMap = getCommitMap(givenBranchCommit);
-
-    //put master commit into merge commit temporary, then check whether the blob need to be changed or delete
-    Commit mergeCommit = new Commit(message, currCommit.getSha1(), givenBranchCommit.getSha1());  //currCommit;
-    mergeCommit.setTracked(currCommit.getTracked());
-
-    for (String id: splitMap.keySet()) {
-      if (currentCommitMap.containsKey(id) && !givenCommitMap.containsKey(id)) {
-        String modifiedFileName = currentCommitMap.get(id);
-        //merge case 1, if files modified in given branch after split point, but not modified in
-        //current branch, keep the modified version, and staged for addition.
-        if (givenCommitMap.containsValue(modifiedFileName)) {
-          mergeCommit.getTracked().remove(id);
-          for (String s : givenCommitMap.keySet()) {
-            if (givenCommitMap.get(s).equals(modifiedFileName)) {
-              mergeCommit.addTracked(modifiedFileName, s);
-              stage.stageForAddition(modifiedFileName, s);
-              List<String> overWriteFile = new ArrayList<>();
-              overWriteFile.add(givenCommitMap.get(s));
-              compareTrackedFiles(overWriteFile, mergeCommit, givenBranchCommit);
-            }
-          }
-        }
-        //merge case 6, files present in split, unmodified in current branch, removed in the given branch,
-        //should be removed and untracked.
-        else {
-          stage.stageForRemoval(modifiedFileName);
-          stage.save();
-          File fileInCWD = Utils.join(CWD, modifiedFileName);
-          Utils.restrictedDelete(fileInCWD);
-        }
-      }
-
-      //merge case 2, files being modified in current branch, but not in given branch, keep the file
-      //merge case 7, files present in split, unmodified in given branch, removed in current branch, should remain absent.
-      else if (!currentCommitMap.containsKey(id) && givenCommitMap.containsKey(id)) {
-        continue;
-      }
-
-      //merge case 3, file being modified in both current and given branch
-      else if (!currentCommitMap.containsKey(id) && !givenCommitMap.containsKey(id)) {
-        //if they are modified in the same way, do nothing
-
-        //Merge case 8, otherwise, there is a conflict. Need to deal with the conflict here.
-        String filename = splitMap.get(id);
-        checkIfConflict(filename, currCommit, givenBranchCommit, stage);
-      }
+    if (checkWhetherFastForward(splitCommit, currCommit, givenBranch)) {
+      return;
     }
 
-    //merge case 4, files not present at split point, but only presented in current branch. Keep them, nothing we need to do here.
-    //Conflict merge case 8, file not exist in split but has different contents in current commit and given branch commit.
-    removeRepeated(splitMap,currentCommitMap);
-    removeRepeated(splitMap,givenCommitMap);
-    for (String s: currentCommitMap.keySet()) {
-      if (!splitMap.containsKey(s) && !givenCommitMap.containsKey(s)) {
-        String filename = currentCommitMap.get(s);
-        if (!splitMap.containsValue(filename) && !givenCommitMap.containsValue(filename)) {
-          continue;
-        }
-        else if (!splitMap.containsValue(filename) && givenCommitMap.containsValue(filename)) {
-          checkIfConflict(filename, currCommit, givenBranchCommit, stage);
-        }
-      }
-    }
+    //decide every path first, in one walk of the three commits' files, then apply the plan
+    List<Merge.Step> plan = Merge.plan(splitCommit.getTracked(), currCommit.getTracked(),
+        givenBranchCommit.getTracked());
 
-    //merge case 5, files not present at split point, only presented in given branch. Checked out and staged.
-    //Conflict merge case 8, file not exist in split but has different contents in current commit and given branch commit.
-    removeRepeated(currentCommitMap, givenCommitMap);
-    for (String s: givenCommitMap.keySet()) {
-      if (!splitMap.containsKey(s) && !currentCommitMap.containsKey(s)) {
-        String filename = givenCommitMap.get(s);
-        if (!splitMap.containsValue(filename) && !currentCommitMap.containsValue(filename)) {
-          List<String> file = new ArrayList<>();
-          file.add(filename);
-          putIntoCWD(file, givenBranchCommit);
-          stage.stageForAddition(filename, s);
-          stage.save();
-        }
-        else if (!splitMap.containsValue(filename) && currentCommitMap.containsValue(filename)){
-          checkIfConflict(filename, currCommit, givenBranchCommit, stage);
-        }
+    //the merge commit starts from the current commit, the plan changes the paths that differ
+    Commit mergeCommit = new Commit(message, currCommit.getSha1(), givenBranchCommit.getSha1());
+    mergeCommit.setTracked(currCommit);
+
+    boolean conflict = false;
+    for (Merge.Step step: plan) {
+      switch (step.action) {
+        //merge case 1 and 5, changed or added only in the given branch, checked out and staged
+        case TAKE_GIVEN:
+          Blob.writeTo(step.given, Utils.join(CWD, step.path));
+          stage.stageForAddition(step.path, step.given);
+          break;
+        //merge case 6, unmodified in the current branch and removed in the given branch
+        case REMOVE:
+          stage.stageForRemoval(step.path);
+          Checkout.remove(step.path);
+          break;
+        //merge case 8, changed in different ways in the two branches. Merged by lines, only
+        //changes to the same lines are a conflict
+        case CONFLICT:
+          conflict |= writeMerged(step, stage);
+          break;
       }
     }
+    //cases 2, 3, 4 and 7 keep the current branch's version, they have no step
 
     //tracked the file in stage for addition, and untracked the file in stage for removal
-    updateStageToCommit(mergeCommit);
-    updateStageForRemovalToCommit(mergeCommit);
+    updateStageToCommit(mergeCommit, stage);
+    updateStageForRemovalToCommit(mergeCommit, stage);
 
     //submit the merge commit and clear the stage.
     submitCommit(mergeCommit, currBranch);
     stage.clear();
     stage.save();
-
-
+    if (conflict) {
+      System.out.println("Encountered a merge conflict.");
+    }
   }
 
 
-  /** Helper method, find the split commit for the two branch, for the further merge.
-   * Using bfs, traverse both commit until reaches the init commit. */
+  /** Helper method, find the split commit for the two branch, for the further merge. It is the
+   * common ancestor with the highest generation, found in the commit graph without reading any
+   * commit objects. */
   private static Commit findSplitCommit(Commit headC, Commit branchC) {
-    Map<String, Integer> headCMap = new HashMap<>();
-    int i=1;
-    Commit iter = headC;
-    Commit iter2 = headC;
-    while (!iter.getParent().isEmpty()) {
-      String hash = iter.getSha1();
-      headCMap.put(hash, i);
-      i++;
-      if (!iter2.getSecond_parent().isEmpty()) {
-        String hash2 = iter2.getSecond_parent();
-        headCMap.put(hash2, i);
-        i++;
-        iter2 = retrieveCommit(iter2.getSecond_parent());
-      }
-      iter = retrieveCommit(iter.getParent());
-    }
-    headCMap.put(iter.getSha1(), i);
-
-    Map<String, Integer> branchCMap = new HashMap<>();
-    int j=1;
-    Commit iterator = branchC;
-    Commit iterator2 = branchC;
-    while (!iterator.getParent().isEmpty()) {
-      String hash = iterator.getSha1();
-      branchCMap.put(hash, j);
-      j++;
-      if (!iterator2.getSecond_parent().isEmpty()) {
-        String hash2 = iterator2.getSecond_parent();
-        headCMap.put(hash2, j);
-        j++;
-        iterator2 = retrieveCommit(iterator2.getSecond_parent());
-      }
-      iterator = retrieveCommit(iterator.getParent());
-    }
-    branchCMap.put(iterator.getSha1(), j);
-
-    int depth = MAX_VALUE;
-    String tmp = "";
-    for (String commitID: branchCMap.keySet()) {
-      if (headCMap.containsKey(commitID)) {
-        if (depth > headCMap.get(commitID)) {
-          tmp = commitID;
-          depth = headCMap.get(commitID);
-        }
-      }
-    }
-    Commit splitCommit = retrieveCommit(tmp);
-    return splitCommit;
+    String split = CommitGraph.load().mergeBase(headC.getSha1(), branchC.getSha1());
+    return retrieveCommit(split);
   }
 
   /** Helper method, check whether the merge is finished, meaning that split commit
@@ -983,110 +840,294 @@ public class Gitlet {
   private static void checkWhetherMergeFinished(Commit split, Commit branchC) {
     if (split.getSha1().equals(branchC.getSha1())) {
       System.out.println("Given branch is an ancestor of the current branch.");
-      System.exit(0);
+      Utils.exit(0);
     }
   }
 
   /** Helper method, check whether it is fast forwarded. In this case, the split commit
    * is the current branch, Then we check out the given branch.
-   * If it is, update the HEAD and show the fast-forward message.*/
-  private static void checkWhetherFastForward(Commit splitCommit, Commit HEADCommit, String branchName)
+   * If it is, update the HEAD and show the fast-forward message, and return true, there is
+   * nothing left to merge.*/
+  private static boolean checkWhetherFastForward(Commit splitCommit, Commit HEADCommit, String branchName)
       throws IOException {
     if (splitCommit.getSha1().equals(HEADCommit.getSha1())) {
       System.out.println("Current branch fast-forwarded.");
       //update the file in CWD, move HEAD point to the branch pointed commit.
       checkoutBranch(branchName);
+      return true;
     }
+    return false;
   }
 
-  /** Helper method, create a map of specific commit, key is the commitID, value
-   * is the filename. */
-  private static Map<String,String> getCommitMap(Commit commit) {
-    Map<String, String> commitMap = new HashMap<>();
-    if (commit.getTracked().isEmpty()) {
-      return commitMap;
+  /** Helper method, write the file of a conflicted STEP merged by lines, and stage it. Where
+   * the two branches changed the same lines, or a branch removed the file or it is binary, both
+   * versions are written between conflict markers, the current branch's first, a version being
+   * empty where the file is gone. Returns true if the file has conflict markers. */
+  private static boolean writeMerged(Merge.Step step, Stage stage) throws IOException {
+    Merge.Contents merged = null;
+    if (step.current != null && step.given != null) {
+      byte[] split = step.split == null ? new byte[0] : Blob.readContents(step.split);
+      merged = Merge.contents(split, Blob.readContents(step.current),
+          Blob.readContents(step.given));
+    }
+    if (merged == null) {
+      String currBranchContents = "";
+      String givenBranchContents = "";
+      if (step.current != null) {
+        currBranchContents = new String(Blob.readContents(step.current), StandardCharsets.UTF_8);
+      }
+      if (step.given != null) {
+        givenBranchContents = new String(Blob.readContents(step.given), StandardCharsets.UTF_8);
+      }
+      String conflictContents = "<<<<<<< HEAD\n" + currBranchContents + "=======\n" + givenBranchContents + ">>>>>>>\n";
+      merged = new Merge.Contents(conflictContents, true);
     }
-    for (String key: commit.getTracked().keySet()) {
-      commitMap.put(commit.getTracked().get(key), key);
+    File mergedFile = join(CWD, step.path);
+    mergedFile.getParentFile().mkdirs();
+    Utils.writeContents(mergedFile, merged.text);
+
+    //the result is committed, so its blob is saved
+    Blob b = new Blob(mergedFile);
+    b.saveBlob();
+    stage.stageForAddition(step.path, b.getHash());
+    return merged.conflict;
+  }
+
+
+  /** Reflog command. Prints the moves of REF, HEAD or a branch, newest first, each as the
+   * abbreviated id it moved to, its place in the log and the reason, like git does. */
+  public static void reflog(String ref) {
+    List<String> lines = Refs.reflog(ref);
+    if (lines == null) {
+      if (!ref.equals("HEAD") && !Refs.exists(ref)) {
+        System.out.println("No such branch exists.");
+        Utils.exit(0);
+      }
+      return;
     }
-    return commitMap;
+    PrintWriter out = LogOptions.output();
+    for (int i = lines.size() - 1, n = 0; i >= 0; i--, n++) {
+      String line = lines.get(i);
+      out.print(line.substring(UID_LENGTH + 1, UID_LENGTH + 8));
+      out.print(" " + ref + "@{" + n + "}: ");
+      out.print(line.substring(line.indexOf('\t') + 1));
+      out.print('\n');
+    }
+    out.flush();
   }
 
+  /** Diff command. Prints the changes between two sets of files, as git diff does:
+   * with no COMMITS, the working directory against the stage, that is the head commit's files
+   * with the staged changes on top; with one commit, that commit against the working directory;
+   * with two, the first commit against the second. With --cached, the commit given or the head
+   * commit is compared to the stage instead. A commit is a branch name, HEAD or a commit id.
+   * OPTIONS may hold --stat, for a line per file and the totals, or --name-only, for the paths.
+   * The two sets of files are walked together once, in path order, and only the files that
+   * differ are read, streamed and diffed in parallel. */
+  public static void diff(List<String> args) throws IOException {
+    String mode = null;
+    boolean cached = false;
+    List<String> revisions = new ArrayList<>();
+    for (String arg: args) {
+      if (arg.equals("--stat") || arg.equals("--name-only")) {
+        if (mode != null && !mode.equals(arg)) {
+          System.out.println("Incorrect operands.");
+          Utils.exit(0);
+        }
+        mode = arg;
+      } else if (arg.equals("--cached")) {
+        cached = true;
+      } else if (arg.startsWith("--") || revisions.size() == 2) {
+        System.out.println("Incorrect operands.");
+        Utils.exit(0);
+      } else {
+        revisions.add(arg);
+      }
+    }
+    if (cached && revisions.size() > 1) {
+      System.out.println("Incorrect operands.");
+      Utils.exit(0);
+    }
+
+    Stage stage = Stage.read();
+    Map<String, String> oldFiles;
+    Map<String, String> newFiles;
+    boolean working = false;
+    if (revisions.size() == 2) {
+      oldFiles = retrieveCommit(resolveRevision(revisions.get(0))).getTracked();
+      newFiles = retrieveCommit(resolveRevision(revisions.get(1))).getTracked();
+    } else if (cached) {
+      String id = resolveRevision(revisions.isEmpty() ? "HEAD" : revisions.get(0));
+      oldFiles = retrieveCommit(id).getTracked();
+      newFiles = stagedFiles(stage);
+    } else {
+      Map<String, String> staged = stagedFiles(stage);
+      oldFiles = revisions.isEmpty() ? staged
+          : retrieveCommit(resolveRevision(revisions.get(0))).getTracked();
+      newFiles = workingTrackedFiles(stage, oldFiles, staged);
+      working = true;
+    }
+
+    List<Diff.Change> changes = Diff.changes(oldFiles, newFiles);
+    PrintWriter out = LogOptions.output();
+    if ("--name-only".equals(mode)) {
+      for (Diff.Change change: changes) {
+        out.print(change.path);
+        out.print('\n');
+      }
+      out.flush();
+      return;
+    }
+
+    //the first pass over each changed file, hashing its lines and diffing, runs in parallel
+    Map<String, Diff.Change> byPath = new HashMap<>();
+    List<String> paths = new ArrayList<>();
+    for (Diff.Change change: changes) {
+      byPath.put(change.path, change);
+      paths.add(change.path);
+    }
+    boolean fromCWD = working;
+    List<Patch> patches = ParallelScan.map(paths, path -> {
+      Diff.Change change = byPath.get(path);
+      Patch.Source oldSource = change.oldId == null ? null : Patch.blob(change.oldId);
+      Patch.Source newSource = change.newId == null ? null
+          : fromCWD ? Patch.file(join(CWD, path)) : Patch.blob(change.newId);
+      return Patch.of(path, oldSource, newSource);
+    });
+    if ("--stat".equals(mode)) {
+      if (!patches.isEmpty()) {
+        Patch.printStat(patches, out);
+      }
+    } else {
+      for (Patch patch: patches) {
+        patch.print(out);
+      }
+    }
+    out.flush();
+  }
 
-  /** Helper method, check whether there is a conflict, if file doesn't exist in split but has
-   * different contents in current commit and given branch commit.*/
-  private static void checkIfConflict(String filename, Commit cCommit, Commit givenCommit, Stage stage)
+  /** Helper method, return the id of the commit named by REVISION: a branch, HEAD for the
+   * head commit, or an id as resolveCommitID takes it. */
+  private static String resolveRevision(String revision) {
+    if (revision.equals("HEAD")) {
+      return Refs.read(readCurrBranch());
+    }
+    String branch = Refs.read(revision);
+    return branch != null ? branch : resolveCommitID(revision);
+  }
+
+  /** Helper method, return the files the next commit would have as the STAGE says: the head
+   * commit's files, plus those staged for addition, less those staged for removal, in path
+   * order. */
+  private static Map<String, String> stagedFiles(Stage stage) {
+    Map<String, String> staged = new TreeMap<>(retrieveCurrentCommit().getTracked());
+    staged.putAll(stage.getAddStage());
+    for (String file: stage.getRemoveStage()) {
+      staged.remove(file);
+    }
+    return staged;
+  }
+
+  /** Helper method, return the files of the working directory that are in OLDFILES or STAGED,
+   * the files diff follows, with the blob ids they would have, in path order. The ids come from
+   * the stat cache where the files are unchanged, as status gets them. */
+  private static Map<String, String> workingTrackedFiles(Stage stage, Map<String, String> oldFiles,
+                                                         Map<String, String> staged)
       throws IOException {
-    boolean conflict = false;
-    //key is the blob id, value is the filename;
-    Map<String, String> currCommitMap = getCommitMap(cCommit);
-    Map<String, String> givenCommitMap = getCommitMap(givenCommit);
-    String currBlobID = "";
-    String givenBlobID = "";
-    for (String s: currCommitMap.keySet()) {
-      if (currCommitMap.get(s).equals(filename)) {
-        currBlobID = s;
+    List<String> fileInCWD = Repository.workingFiles();
+    List<String> followed = new ArrayList<>();
+    for (String file: fileInCWD) {
+      if (staged.containsKey(file) || oldFiles.containsKey(file)) {
+        followed.add(file);
       }
     }
-    for (String g: givenCommitMap.keySet()) {
-      if (givenCommitMap.get(g).equals(filename)) {
-        givenBlobID = g;
+    List<String> blobIDs = stage.blobIDs(followed);
+    Map<String, String> files = new LinkedHashMap<>();
+    for (int i = 0; i < followed.size(); i++) {
+      files.put(followed.get(i), blobIDs.get(i));
+    }
+    stage.pruneStatCache(fileInCWD);
+    stage.saveIfStatChanged();
+    return files;
+  }
+
+  /** Gc command. Moves all the loose objects except large blobs, and the objects of the existing
+   * packs, into one new pack. The versions of a file tracked by the commits are stored as deltas from each other, so a
+   * small edit to a large file costs little. The loose files are deleted once the pack is written.
+   * The branches are moved into packed-refs too, the ids added to the commit index, the records
+   * added to the commit graph and the message hashes added since they were last sorted are sorted
+   * in, and what is left in .gitlet/tmp is cleared. */
+  public static void gc() throws IOException {
+    Refs.pack();
+    CommitIndex.sort();
+    CommitGraph.sort();
+    MessageIndex.sort();
+    List<String> commitIDs = Repository.commitIDs();
+    Map<String, byte[]> commitBytes = new LinkedHashMap<>();
+    //group the blobs by the file they are a version of, the stage's blobs count too
+    Map<String, Set<String>> versions = new TreeMap<>();
+    for (String id: commitIDs) {
+      commitBytes.put(id, Commit.readBytes(id));
+      for (Map.Entry<String, String> file: retrieveCommit(id).getTracked().entrySet()) {
+        versions.computeIfAbsent(file.getKey(), k -> new LinkedHashSet<>()).add(file.getValue());
       }
     }
+    Stage stage = Stage.read();
+    for (Map.Entry<String, String> file: stage.getAddStage().entrySet()) {
+      versions.computeIfAbsent(file.getKey(), k -> new LinkedHashSet<>()).add(file.getValue());
+    }
 
-    //both current commit and given commit track the file with same name, need to check
-    //whether the contents is the same as well.
-    if (currCommitMap.containsValue(filename) && givenCommitMap.containsValue(filename)) {
-      if (!currBlobID.equals(givenBlobID)) {
-        conflict = true;
+    //large blobs stay loose, packing holds a blob in memory. Chunked blobs stay loose too, their
+    //chunks are shared with other versions
+    Set<String> large = new HashSet<>();
+    for (String id: Repository.objectIDs(blobs)) {
+      if (Blob.isChunked(id) || Blob.size(id) > Pack.MAX_BLOB_SIZE) {
+        large.add(id);
       }
     }
 
-    //file exists in split commit, but delete in both current commit and given commit.
-    else if (!currCommitMap.containsValue(filename) && !givenCommitMap.containsValue(filename)){
-      conflict = false;
+    //blobs no commit or stage refers to are still kept, each one in a group of its own
+    Set<String> grouped = new HashSet<>(large);
+    List<List<String>> blobGroups = new ArrayList<>();
+    for (Set<String> group: versions.values()) {
+      group.removeAll(large);
+      grouped.addAll(group);
+      blobGroups.add(new ArrayList<>(group));
+    }
+    Set<String> allBlobs = new TreeSet<>(Repository.objectIDs(blobs));
+    allBlobs.addAll(Pack.ids(Pack.BLOB));
+    for (String id: allBlobs) {
+      if (!grouped.contains(id)) {
+        blobGroups.add(List.of(id));
+      }
     }
 
-    //file exists split commit, tracked by current commit and untracked by given commit, or untracked by current commit
-    // and tracked by given commit. Conflict.
-    else {
-      conflict = true;
+    Map<String, byte[]> treeBytes = new LinkedHashMap<>();
+    Set<String> allTrees = new TreeSet<>(Repository.objectIDs(Repository.trees));
+    allTrees.addAll(Pack.ids(Pack.TREE));
+    for (String id: allTrees) {
+      treeBytes.put(id, Tree.readBytes(id));
     }
 
-    if (conflict) {
-      String currBranchContents = "";
-      String givenBranchContents = "";
-      if (!currBlobID.isEmpty()) {
-        File currBlob = Utils.join(blobs, currBlobID);
-        Blob currB = readObject(currBlob, Blob.class);
-        currBranchContents = new String(currB.getContents(), StandardCharsets.UTF_8);
-      }
-      if (!givenBlobID.isEmpty()) {
-        File givenBlob = Utils.join(blobs, givenBlobID);
-        Blob givenB = Utils.readObject(givenBlob, Blob.class);
-        givenBranchContents = new String(givenB.getContents(), StandardCharsets.UTF_8);
+    Pack.write(commitBytes, treeBytes, blobGroups);
+
+    //temporary files left by a process that was killed while writing, none is being written now
+    List<String> leftovers = Utils.plainFilenamesIn(Repository.TMP_DIR);
+    if (leftovers != null) {
+      for (String leftover: leftovers) {
+        Utils.join(Repository.TMP_DIR, leftover).delete();
       }
-      String conflictContents = "<<<<<<< HEAD\n" + currBranchContents + "=======\n" + givenBranchContents + ">>>>>>>\n";
-      File conflictFile = join(CWD, filename);
-      conflictFile.createNewFile();
-      Utils.writeContents(conflictFile, conflictContents);
-
-      //stage the result
-      Blob b = new Blob(conflictFile);
-      stage.stageForAddition(filename, b.getHash());
-      stage.save();
-      System.out.println("Encountered a merge conflict.");
     }
-  }
 
-  /** Helper function, removed the already considered file in split commit map, and only
-   * consider the remained file tracked in currMap or givenMap. */
-  private static void removeRepeated(Map<String, String> splitMap, Map<String, String> otherMap){
-    for (String key: splitMap.keySet()) {
-      if (otherMap.containsKey(key)) {
-        otherMap.remove(key);
+    for (File dir: new File[] {commits, Repository.trees, blobs}) {
+      for (String id: Repository.objectIDs(dir)) {
+        if (large.contains(id)) {
+          continue;
+        }
+        File loose = Repository.objectFile(dir, id);
+        loose.delete();
+        loose.getParentFile().delete(); //only goes once the subdirectory is empty
       }
     }
   }
-
-}
\ No newline at end of file
+}
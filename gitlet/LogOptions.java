@@ -0,0 +1,225 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/** The options of log and global-log, which choose the commits shown and how each is printed:
+ *    -n COUNT          show at most COUNT commits
+ *    --since=DATE      only commits made at or after DATE
+ *    --until=DATE      only commits made at or before DATE
+ *    --oneline         each commit as its abbreviated id and message on one line
+ *    --format=FORMAT   each commit as FORMAT, where %H is the id, %h the abbreviated id, %P and
+ *                      %p the parents' ids, %ad the date, %at the date in seconds since the
+ *                      epoch, %s the message, %n a newline and %% a percent sign
+ *  A DATE is yyyy-MM-dd, yyyy-MM-dd HH:mm[:ss] in the local time zone, or a date as log prints
+ *  it. The option values may also follow as the next argument.
+ *  @author Susie
+ */
+class LogOptions {
+
+    /** Length of an abbreviated id. */
+    private static final int SHORT_ID = 7;
+
+    /** Size of the buffer the output is written through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private int limit = Integer.MAX_VALUE;
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private String format;
+    private boolean oneline;
+
+    /** Return the options in ARGS. Aborts with "Incorrect operands." on an option it does not
+     *  know or a bad value. */
+    static LogOptions parse(List<String> args) {
+        LogOptions options = new LogOptions();
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            String name = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+            String value = null;
+            if (arg.contains("=")) {
+                value = arg.substring(arg.indexOf('=') + 1);
+            } else if (!arg.equals("--oneline") && i + 1 < args.size()) {
+                value = args.get(++i);
+            }
+            switch (name) {
+                case "-n":
+                    options.limit = parseCount(value);
+                    break;
+                case "--since":
+                    options.since = parseDate(value);
+                    break;
+                case "--until":
+                    options.until = parseDate(value);
+                    break;
+                case "--oneline":
+                    options.oneline = true;
+                    break;
+                case "--format":
+                    if (value == null) {
+                        incorrectOperands();
+                    }
+                    options.format = value;
+                    break;
+                default:
+                    incorrectOperands();
+            }
+        }
+        return options;
+    }
+
+    /** Return the most commits to show. */
+    int limit() {
+        return limit;
+    }
+
+    /** Return true if COMMIT was made before the --since date. */
+    boolean tooOld(Commit commit) {
+        return commit.getTime() < since;
+    }
+
+    /** Return true if COMMIT is in the chosen range of dates. */
+    boolean inRange(Commit commit) {
+        return commit.getTime() >= since && commit.getTime() <= until;
+    }
+
+    /** Return a writer to print commits with, over System.out. Buffered, so it must be
+     *  flushed at the end. */
+    static PrintWriter output() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out),
+            BUFFER_SIZE), false);
+    }
+
+    /** Print COMMIT to OUT as the options say. */
+    void print(Commit commit, PrintWriter out) {
+        if (format != null) {
+            out.print(expand(commit));
+            out.print('\n');
+        } else if (oneline) {
+            out.write(commit.getSha1(), 0, SHORT_ID);
+            out.print(' ');
+            out.print(commit.getMessage());
+            out.print('\n');
+        } else {
+            out.print("===\ncommit ");
+            out.print(commit.getSha1());
+            out.print('\n');
+            if (!commit.getSecond_parent().isEmpty()) {
+                out.print("Merge: " + commit.getParent().substring(0, 6) + " "
+                    + commit.getSecond_parent().substring(0, 6) + "\n");
+            }
+            out.print("Date: ");
+            out.print(commit.getTimestamp());
+            out.print('\n');
+            out.print(commit.getMessage());
+            out.print("\n\n");
+        }
+    }
+
+    /** Return the format filled in for COMMIT. */
+    private String expand(Commit commit) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '%' || i + 1 == format.length()) {
+                result.append(c);
+                continue;
+            }
+            char next = format.charAt(++i);
+            switch (next) {
+                case 'H':
+                    result.append(commit.getSha1());
+                    break;
+                case 'h':
+                    result.append(commit.getSha1(), 0, SHORT_ID);
+                    break;
+                case 'P':
+                case 'p':
+                    int length = next == 'P' ? Utils.UID_LENGTH : SHORT_ID;
+                    if (!commit.getParent().isEmpty()) {
+                        result.append(commit.getParent(), 0, length);
+                    }
+                    if (!commit.getSecond_parent().isEmpty()) {
+                        result.append(' ').append(commit.getSecond_parent(), 0, length);
+                    }
+                    break;
+                case 's':
+                    result.append(commit.getMessage());
+                    break;
+                case 'n':
+                    result.append('\n');
+                    break;
+                case '%':
+                    result.append('%');
+                    break;
+                case 'a':
+                    char kind = i + 1 < format.length() ? format.charAt(i + 1) : 0;
+                    if (kind == 'd') {
+                        result.append(commit.getTimestamp());
+                        i++;
+                    } else if (kind == 't') {
+                        result.append(commit.getTime() / 1000);
+                        i++;
+                    } else {
+                        result.append('%').append(next);
+                    }
+                    break;
+                default:
+                    result.append('%').append(next);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the count VALUE, which must be a number that is not negative. */
+    private static int parseCount(String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException excp) {
+            //handled below
+        }
+        incorrectOperands();
+        return 0;
+    }
+
+    /** Return the time the date VALUE names, in milliseconds since the epoch. */
+    private static long parseDate(String value) {
+        if (value != null) {
+            try {
+                return OffsetDateTime.parse(value, Commit.TIMESTAMP).toInstant().toEpochMilli();
+            } catch (DateTimeParseException excp) {
+                //try the next format
+            }
+            try {
+                return LocalDateTime.parse(value.replace(' ', 'T'))
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException excp) {
+                //try the next format
+            }
+            try {
+                return LocalDate.parse(value)
+                    .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException excp) {
+                //handled below
+            }
+        }
+        incorrectOperands();
+        return 0;
+    }
+
+    /** Abort the command with the message for bad operands. */
+    private static void incorrectOperands() {
+        System.out.println("Incorrect operands.");
+        Utils.exit(0);
+    }
+}
@@ -0,0 +1,74 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A cache that keeps the most recently used values, up to a total weight, and counts its hits
+ *  and misses. Only meant for immutable values, such as commits and blob contents, which are
+ *  named by their sha1 and so never go stale. A get reorders the entries, so every method is
+ *  synchronized: the caches are reached from ParallelScan's threads too.
+ *  @author Susie
+ */
+class LruCache<K, V> {
+
+    /** The entries, least recently used first. */
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The weight of a value, and the most the values may weigh in total. */
+    private final ToLongFunction<V> weigher;
+    private final long maxWeight;
+
+    private long weight;
+    private long hits;
+    private long misses;
+
+    /** A cache holding values up to MAXWEIGHT in total, each weighing what WEIGHER says. */
+    LruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /** A cache holding at most MAXSIZE values. */
+    LruCache(int maxSize) {
+        this(maxSize, v -> 1);
+    }
+
+    /** Return the value cached for KEY, or null if there is none. */
+    synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /** Cache VALUE for KEY, dropping the least recently used values until the total weight
+     *  fits again. A value heavier than the whole cache is not kept. */
+    synchronized void put(K key, V value) {
+        long w = weigher.applyAsLong(value);
+        if (w > maxWeight) {
+            return;
+        }
+        V old = entries.put(key, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += w;
+        Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight) {
+            weight -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /** Return the hits and misses, and the share of gets that hit, as a line of text. */
+    synchronized String stats() {
+        long gets = hits + misses;
+        return hits + " hits, " + misses + " misses"
+            + (gets == 0 ? "" : String.format(", %.1f%% hit", 100.0 * hits / gets));
+    }
+}
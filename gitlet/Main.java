@@ -4,6 +4,7 @@ import static gitlet.Utils.error;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  mostly be calling helper methods in the Repository class.
@@ -13,12 +14,24 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ...
-     *  java gitlet.Main add file
+     *  java gitlet.Main add file...
      */
     public static void main(String[] args) throws IOException {
+        if (Boolean.getBoolean("gitlet.cacheStats")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Main::printCacheStats));
+        }
+        //when a daemon serves this repository, it runs the command instead
+        if (Daemon.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    /** Run the command in ARGS. Called by main, or by the daemon for each command it serves. */
+    static void run(String[] args) throws IOException {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
-            System.exit(0);
+            Utils.exit(0);
         }
 
         String firstArg = args[0];
@@ -30,9 +43,8 @@ public class Main {
                 if (args.length < 2) {
                     throw error("Please enter a add file message.");
                 }
-                validateNumArgs("add", args, 2);
                 checkIfInitialized();
-                Gitlet.add(args[1]);
+                Gitlet.add(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 if (args.length < 2) {
@@ -53,26 +65,31 @@ public class Main {
                 break;
 
             case "log":
-                checkIfInitialized();
-                Gitlet.log();
+                checkIfInitialized(true);
+                Gitlet.log(Arrays.asList(args).subList(1, args.length));
                 break;
 
             case "global-log":
-                checkIfInitialized();
-                Gitlet.global_log();
+                checkIfInitialized(true);
+                Gitlet.global_log(Arrays.asList(args).subList(1, args.length));
                 break;
 
             case "find":
                 if (args.length < 2) {
                     throw error("Please enter a find commit message.");
                 }
+                if (args.length == 3) {
+                    checkIfInitialized(true);
+                    Gitlet.find(args[1], args[2]);
+                    break;
+                }
                 validateNumArgs("find", args, 2);
-                checkIfInitialized();
-                Gitlet.find(args[1]);
+                checkIfInitialized(true);
+                Gitlet.find(null, args[1]);
                 break;
 
             case "status":
-                checkIfInitialized();
+                checkIfInitialized(true);
                 Gitlet.status();
                 break;
 
@@ -118,10 +135,51 @@ public class Main {
                 validateNumArgs("merge", args, 2);
                 Gitlet.merge(args[1]);
                 break;
+
+            case "gc":
+                checkIfInitialized();
+                validateNumArgs("gc", args, 1);
+                Gitlet.gc();
+                break;
+
+            case "reflog":
+                checkIfInitialized(true);
+                if (args.length == 1) {
+                    Gitlet.reflog("HEAD");
+                    break;
+                }
+                validateNumArgs("reflog", args, 2);
+                Gitlet.reflog(args[1]);
+                break;
+
+            case "diff":
+                checkIfInitialized(true);
+                Gitlet.diff(Arrays.asList(args).subList(1, args.length));
+                break;
+
+            case "daemon":
+                checkIfInitialized();
+                if (args.length == 2 && args[1].equals("stop")) {
+                    System.out.println("No Gitlet daemon is running.");
+                    break;
+                }
+                validateNumArgs("daemon", args, 1);
+                //each command it serves takes the lock for itself
+                RepoLock.release();
+                Daemon.serve();
+                break;
         }
     }
 
 
+    /** Print the hits and misses of the commit, tree and blob caches to standard error, for
+     *  -Dgitlet.cacheStats=true. A command a daemon runs counts in the daemon's caches. */
+    private static void printCacheStats() {
+        System.err.println("commit cache: " + Commit.cache().stats());
+        System.err.println("tree cache: " + Tree.cache().stats());
+        System.err.println("blob cache: " + Blob.cache().stats());
+    }
+
     /** check whether the user input the correct command. */
     private static void validateNumArgs(String cmd, String[] args, int n) {
         if (args.length != n) {
@@ -131,12 +189,32 @@ public class Main {
     }
 
 
-    /** check whether the .gitlet has been initialized */
-    private static void checkIfInitialized() {
+    /** check whether the .gitlet has been initialized, and bring an older layout up to date.
+     *  The command holds the repository lock from here on, exclusively. */
+    private static void checkIfInitialized() throws IOException {
+        checkIfInitialized(false);
+    }
+
+    /** check whether the .gitlet has been initialized, and bring an older layout up to date.
+     *  The command holds the repository lock from here on, shared if READONLY, unless the
+     *  layout has to be brought up to date first. */
+    private static void checkIfInitialized(boolean readOnly) throws IOException {
         if (!Repository.GITLET_DIR.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            Utils.exit(0);
+        }
+        RepoLock.acquire(readOnly && Repository.isUpToDate());
+        //an init that made .gitlet but lost the race for the lock has written nothing yet, and
+        //HEAD is written before init gives the lock up
+        if (Repository.HEAD.length() == 0) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            Utils.exit(0);
         }
+        Repository.migrateFanOut();
+        Repository.migrateCommitFormat();
+        Repository.migrateCommitIndex();
+        Repository.migrateCommitGraph();
+        Repository.migrateMessageIndex();
     }
 
 }
@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/** The three-way merge of the files of two commits, keyed by path. The files of the split point,
+ *  the current commit and the given commit are walked together in path order, once, and each
+ *  path is decided from its three blob ids alone:
+ *    - the same in current and given: kept as it is, changed the same way or not at all
+ *    - only given changed it since the split: given's version is taken, or the file is removed
+ *      if given removed it
+ *    - only current changed it: current's version is kept
+ *    - both changed it differently: a conflict
+ *  Blob ids include the path, so a file moved to another path counts as removed and added.
+ *  The result is a plan, a step for every path the merge changes, which merge applies to the
+ *  working directory and the stage afterwards.
+ *  A conflicted text file is merged again by lines, the way diff3 does: the changes each side
+ *  made to the split point's version are found with Diff, changes that do not overlap are both
+ *  taken, and only where the two sides changed the same lines differently does the file get
+ *  conflict markers, around just those lines.
+ *  @author Susie
+ */
+class Merge {
+
+    /** What a step does to its path. */
+    enum Action {
+        /** Check out given's version and stage it. */
+        TAKE_GIVEN,
+        /** Delete the file and stage its removal. */
+        REMOVE,
+        /** Write both versions into the file with conflict markers and stage that. */
+        CONFLICT
+    }
+
+    /** A step of the plan: ACTION on PATH, whose blob ids at the split point, in the current
+     *  and in the given commit are SPLIT, CURRENT and GIVEN, null where it has none. */
+    static class Step {
+        final String path;
+        final Action action;
+        final String split;
+        final String current;
+        final String given;
+
+        Step(String path, Action action, String split, String current, String given) {
+            this.path = path;
+            this.action = action;
+            this.split = split;
+            this.current = current;
+            this.given = given;
+        }
+    }
+
+    /** The contents of a file merged by lines, and whether they have conflict markers. */
+    static class Contents {
+        final String text;
+        final boolean conflict;
+
+        Contents(String text, boolean conflict) {
+            this.text = text;
+            this.conflict = conflict;
+        }
+    }
+
+    /** Return the plan that merges GIVEN into CURRENT, whose split point has the files SPLIT, in
+     *  path order. Each map is from path to blob id and iterates in path order, as the files of a
+     *  commit do. */
+    static List<Step> plan(Map<String, String> split, Map<String, String> current,
+                           Map<String, String> given) {
+        List<Step> steps = new ArrayList<>();
+        Iterator<Map.Entry<String, String>> splitFiles = split.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> currentFiles = current.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> givenFiles = given.entrySet().iterator();
+        Map.Entry<String, String> s = next(splitFiles);
+        Map.Entry<String, String> c = next(currentFiles);
+        Map.Entry<String, String> g = next(givenFiles);
+        while (s != null || c != null || g != null) {
+            String path = min(min(key(s), key(c)), key(g));
+            String splitId = null;
+            String currentId = null;
+            String givenId = null;
+            if (path.equals(key(s))) {
+                splitId = s.getValue();
+                s = next(splitFiles);
+            }
+            if (path.equals(key(c))) {
+                currentId = c.getValue();
+                c = next(currentFiles);
+            }
+            if (path.equals(key(g))) {
+                givenId = g.getValue();
+                g = next(givenFiles);
+            }
+            Action action = decide(splitId, currentId, givenId);
+            if (action != null) {
+                steps.add(new Step(path, action, splitId, currentId, givenId));
+            }
+        }
+        return steps;
+    }
+
+    /** Return the merge by lines of the versions CURRENT and GIVEN of a file, whose version at
+     *  the split point is SPLIT, empty if it had none. Where both changed the same lines in
+     *  different ways, the result has the current lines and the given lines between conflict
+     *  markers. Returns null if a version is not text, it has a NUL byte. */
+    static Contents contents(byte[] split, byte[] current, byte[] given) {
+        if (isBinary(split) || isBinary(current) || isBinary(given)) {
+            return null;
+        }
+        List<String> base = Diff.lines(split);
+        List<String> ours = Diff.lines(current);
+        List<String> theirs = Diff.lines(given);
+        List<Diff.Edit> oursEdits = Diff.diff(base, ours);
+        List<Diff.Edit> theirsEdits = Diff.diff(base, theirs);
+
+        StringBuilder result = new StringBuilder();
+        boolean conflict = false;
+        int i = 0;
+        int j = 0;
+        //lines of ours and theirs minus lines of base, over the changes passed so far
+        int oursShift = 0;
+        int theirsShift = 0;
+        int copied = 0;
+        while (i < oursEdits.size() || j < theirsEdits.size()) {
+            //a region of base starting at the next change, grown while a change of either side
+            //overlaps or touches it
+            int lo = Math.min(beginA(oursEdits, i), beginA(theirsEdits, j));
+            int hi = lo;
+            int oursStart = lo + oursShift;
+            int theirsStart = lo + theirsShift;
+            boolean oursChanged = false;
+            boolean theirsChanged = false;
+            while (true) {
+                if (beginA(oursEdits, i) <= hi) {
+                    Diff.Edit edit = oursEdits.get(i++);
+                    hi = Math.max(hi, edit.endA);
+                    oursShift += (edit.endB - edit.beginB) - (edit.endA - edit.beginA);
+                    oursChanged = true;
+                } else if (beginA(theirsEdits, j) <= hi) {
+                    Diff.Edit edit = theirsEdits.get(j++);
+                    hi = Math.max(hi, edit.endA);
+                    theirsShift += (edit.endB - edit.beginB) - (edit.endA - edit.beginA);
+                    theirsChanged = true;
+                } else {
+                    break;
+                }
+            }
+            append(result, base, copied, lo);
+            List<String> oursLines = ours.subList(oursStart, hi + oursShift);
+            List<String> theirsLines = theirs.subList(theirsStart, hi + theirsShift);
+            if (!theirsChanged || (oursChanged && oursLines.equals(theirsLines))) {
+                append(result, oursLines, 0, oursLines.size());
+            } else if (!oursChanged) {
+                append(result, theirsLines, 0, theirsLines.size());
+            } else {
+                //as the spec has it, a last line with no terminator runs into the next marker
+                result.append("<<<<<<< HEAD\n");
+                append(result, oursLines, 0, oursLines.size());
+                result.append("=======\n");
+                append(result, theirsLines, 0, theirsLines.size());
+                result.append(">>>>>>>\n");
+                conflict = true;
+            }
+            copied = hi;
+        }
+        append(result, base, copied, base.size());
+        return new Contents(result.toString(), conflict);
+    }
+
+    /** Return the first line of base changed by the change at INDEX of EDITS, or past any line
+     *  if there is none. */
+    private static int beginA(List<Diff.Edit> edits, int index) {
+        return index < edits.size() ? edits.get(index).beginA : Integer.MAX_VALUE;
+    }
+
+    /** Append LINES from FROM to TO, exclusive, to RESULT. */
+    private static void append(StringBuilder result, List<String> lines, int from, int to) {
+        for (int i = from; i < to; i++) {
+            result.append(lines.get(i));
+        }
+    }
+
+    /** Return true if CONTENTS has a NUL byte, as text never does. */
+    private static boolean isBinary(byte[] contents) {
+        for (byte b : contents) {
+            if (b == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the action for a path whose blob ids at the split, in current and in given are
+     *  SPLIT, CURRENT and GIVEN, null where it has none, or null if current's version stays. */
+    private static Action decide(String split, String current, String given) {
+        if (Objects.equals(current, given) || Objects.equals(split, given)) {
+            return null;
+        }
+        if (Objects.equals(split, current)) {
+            return given == null ? Action.REMOVE : Action.TAKE_GIVEN;
+        }
+        return Action.CONFLICT;
+    }
+
+    /** Return the next entry of FILES, or null at the end. */
+    private static Map.Entry<String, String> next(Iterator<Map.Entry<String, String>> files) {
+        return files.hasNext() ? files.next() : null;
+    }
+
+    /** Return the path of FILE, or null if there is none. */
+    private static String key(Map.Entry<String, String> file) {
+        return file == null ? null : file.getKey();
+    }
+
+    /** Return the smaller of the paths A and B, null being larger than any path. */
+    private static String min(String a, String b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.compareTo(b) <= 0 ? a : b;
+    }
+}
@@ -0,0 +1,295 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/** The message index in objects/message-index: a record for every commit, in the order the
+ *  commits were made, holding the hash of its message and its header in the binary commit
+ *  format. find with a pattern reads this one file instead of every commit object, and
+ *  global-log prints from it too. submitCommit appends each new commit's record.
+ *  objects/message-hashes is a RecordFile of the message hash and the position of the record of
+ *  every commit, sorted by hash, so find of a whole message is a binary search there and a read
+ *  of the records whose hash matches, whatever the number of commits. The hash of a record is
+ *  added before the record, so no record lacks one; a hash whose record was never written leads
+ *  to another record or none, and find compares the messages anyway.
+ *  The file starts with a header: the magic number, the length of the file up to the end of its
+ *  last record, and the position of that record. A record is the length of the encoded commit,
+ *  the commit's binary id, the String hash code of its message, the encoded commit, and a CRC32
+ *  of all that. A record is appended in place and the header then updated, so a crash part way
+ *  leaves bytes past the length, which are ignored and written over. If the power goes, the
+ *  header may reach the disk and the record not: readers stop at a record whose checksum does
+ *  not match, and the next append checks the last record and writes over it if it is bad.
+ *  @author Susie
+ */
+class MessageIndex {
+
+    /** First int of the file, "GMI2". Version 1 had no header fields or checksums. */
+    private static final int MAGIC = 0x474d4932;
+
+    /** Bytes of the magic number, the length and the position of the last record. */
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+
+    /** Bytes of a record in front of the encoded commit. */
+    private static final int RECORD_HEADER = 4 + ID_SIZE + 4;
+
+    /** Bytes of the checksum at the end of a record. */
+    private static final int CHECKSUM_SIZE = 4;
+
+    /** First int of the table of message hashes, "GMH1". */
+    private static final int HASHES_MAGIC = 0x474d4831;
+
+    /** A record of the table of message hashes is the hash and the position of the record. */
+    private static final int HASH_RECORD_SIZE = 4 + 8;
+
+    /** Return true if the repository has a message index and a table of message hashes in the
+     *  current format. */
+    static boolean isCurrent() {
+        return RecordFile.isCurrent(Repository.MESSAGE_INDEX, MAGIC)
+            && RecordFile.isCurrent(Repository.MESSAGE_HASHES, HASHES_MAGIC);
+    }
+
+    /** Append the record of COMMIT, creating the index if there is none, and add its message
+     *  hash to the table, which is sorted if it has maxTail unsorted records. */
+    static void add(Commit commit) {
+        if (!Repository.MESSAGE_INDEX.exists()) {
+            rebuild(List.of(commit));
+            return;
+        }
+        byte[] record = record(commit);
+        boolean full;
+        try (RandomAccessFile index = new RandomAccessFile(Repository.MESSAGE_INDEX, "rw");
+             RecordFile hashes = RecordFile.open(Repository.MESSAGE_HASHES, HASHES_MAGIC,
+                 HASH_RECORD_SIZE, "rw")) {
+            if (index.length() < HEADER_SIZE || index.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Bad message index");
+            }
+            long end = index.readLong();
+            long last = index.readLong();
+            if (last >= 0 && readRecord(index, last, end) == null) {
+                //the last record did not reach the disk whole, so neither did its commit's ref
+                end = last;
+            }
+            hashes.append(hashRecord(commit.getMessage().hashCode(), end));
+            full = hashes.tailFull();
+            index.setLength(end);
+            index.seek(end);
+            index.write(record);
+            index.seek(4);
+            index.writeLong(end + record.length);
+            index.writeLong(end);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durable.appended(Repository.MESSAGE_INDEX);
+        if (full) {
+            sort();
+        }
+    }
+
+    /** Sort the message hashes added since the table was last sorted into it. */
+    static void sort() {
+        if (Repository.MESSAGE_HASHES.exists()) {
+            RecordFile.sort(Repository.MESSAGE_HASHES, HASHES_MAGIC, HASH_RECORD_SIZE);
+        }
+    }
+
+    /** Replace the index and the table of message hashes with ones holding COMMITS, in that
+     *  order. */
+    static void rebuild(List<Commit> commits) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        List<byte[]> hashes = new ArrayList<>();
+        long last = -1;
+        for (Commit commit : commits) {
+            last = HEADER_SIZE + records.size();
+            hashes.add(hashRecord(commit.getMessage().hashCode(), last));
+            records.writeBytes(record(commit));
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putLong(HEADER_SIZE + records.size()).putLong(last);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.writeBytes(header.array());
+        file.writeBytes(records.toByteArray());
+        Durable.replace(Repository.MESSAGE_INDEX, file.toByteArray());
+        hashes.sort(Arrays::compareUnsigned);
+        RecordFile.write(Repository.MESSAGE_HASHES, HASHES_MAGIC, hashes);
+    }
+
+    /** Return the ids of the commits whose message is MESSAGE, in the order they were made.
+     *  Only the records the table of message hashes points at are read. */
+    static List<String> find(String message) {
+        int hash = message.hashCode();
+        //records lie in the order the commits were made, and a position found twice is read once
+        TreeSet<Long> positions = new TreeSet<>();
+        try (RecordFile hashes = RecordFile.open(Repository.MESSAGE_HASHES, HASHES_MAGIC,
+                 HASH_RECORD_SIZE, "r")) {
+            byte[] key = ByteBuffer.allocate(4).putInt(hash).array();
+            for (int pos : hashes.findAll(key)) {
+                positions.add(hashes.getLong(pos, 4));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        List<String> ids = new ArrayList<>();
+        if (positions.isEmpty()) {
+            return ids;
+        }
+        try (RandomAccessFile index = new RandomAccessFile(Repository.MESSAGE_INDEX, "r")) {
+            if (index.length() < HEADER_SIZE || index.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Bad message index");
+            }
+            long end = index.readLong();
+            for (long pos : positions) {
+                ByteBuffer record = readRecord(index, pos, end);
+                if (record != null && record.getInt(ID_SIZE) == hash
+                    && message.equals(message(record))) {
+                    ids.add(id(record));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return ids;
+    }
+
+    /** Return the ids of the commits whose message MATCHES, in the order they were made. */
+    static List<String> findMatching(Predicate<String> matches) {
+        return find(record -> matches.test(message(record)));
+    }
+
+    /** Return every commit, read from the index, in the order they were made. */
+    static Iterable<Commit> commits() {
+        return () -> new Iterator<>() {
+            private final ByteBuffer index = load();
+            private ByteBuffer record = nextRecord(index);
+
+            @Override
+            public boolean hasNext() {
+                return record != null;
+            }
+
+            @Override
+            public Commit next() {
+                if (record == null) {
+                    throw new NoSuchElementException();
+                }
+                byte[] encoded = new byte[record.remaining() - ID_SIZE - 4];
+                record.get(ID_SIZE + 4, encoded);
+                Commit commit = Commit.decode(id(record), encoded);
+                record = nextRecord(index);
+                return commit;
+            }
+        };
+    }
+
+    /** Return the ids of the commits whose record MATCHES, in the order they were made. A record
+     *  is given as a buffer holding the id, the message hash and the encoded commit. */
+    private static List<String> find(Predicate<ByteBuffer> matches) {
+        ByteBuffer index = load();
+        List<String> ids = new ArrayList<>();
+        for (ByteBuffer record = nextRecord(index); record != null; record = nextRecord(index)) {
+            if (matches.test(record)) {
+                ids.add(id(record));
+            }
+        }
+        return ids;
+    }
+
+    /** Return the bytes of the record of COMMIT. */
+    private static byte[] record(Commit commit) {
+        byte[] encoded = commit.encode();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + encoded.length + CHECKSUM_SIZE);
+        record.putInt(encoded.length);
+        record.put(hexToBytes(commit.getSha1()));
+        record.putInt(commit.getMessage().hashCode());
+        record.put(encoded);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    /** Return the record of the table of message hashes for HASH, of the record at POS. */
+    private static byte[] hashRecord(int hash, long pos) {
+        return ByteBuffer.allocate(HASH_RECORD_SIZE).putInt(hash).putLong(pos).array();
+    }
+
+    /** Return the index, from its first record up to the length in its header. */
+    private static ByteBuffer load() {
+        try {
+            ByteBuffer index =
+                ByteBuffer.wrap(Files.readAllBytes(Repository.MESSAGE_INDEX.toPath()));
+            if (index.remaining() < HEADER_SIZE || index.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Bad message index");
+            }
+            long end = Math.min(index.getLong(), index.capacity());
+            return index.slice(HEADER_SIZE, (int) Math.max(end - HEADER_SIZE, 0));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the record at the position of INDEX, without its length and checksum, and move
+     *  past it. Returns null at the end of INDEX, or at a record cut short or damaged. */
+    private static ByteBuffer nextRecord(ByteBuffer index) {
+        if (index.remaining() < RECORD_HEADER + CHECKSUM_SIZE) {
+            return null;
+        }
+        int start = index.position();
+        int length = index.getInt(start);
+        if (length < 0 || length > index.remaining() - RECORD_HEADER - CHECKSUM_SIZE) {
+            return null;
+        }
+        int size = RECORD_HEADER + length;
+        CRC32 crc = new CRC32();
+        crc.update(index.slice(start, size));
+        if ((int) crc.getValue() != index.getInt(start + size)) {
+            return null;
+        }
+        index.position(start + size + CHECKSUM_SIZE);
+        return index.slice(start + 4, size - 4);
+    }
+
+    /** Return the record of INDEX at position POS, as nextRecord does, or null if it is not a
+     *  whole record ending by END. */
+    private static ByteBuffer readRecord(RandomAccessFile index, long pos, long end)
+        throws IOException {
+        long available = Math.min(end, index.length()) - pos;
+        if (pos < HEADER_SIZE || available < RECORD_HEADER + CHECKSUM_SIZE) {
+            return null;
+        }
+        index.seek(pos);
+        int length = index.readInt();
+        if (length < 0 || length > available - RECORD_HEADER - CHECKSUM_SIZE) {
+            return null;
+        }
+        byte[] record = new byte[RECORD_HEADER + length + CHECKSUM_SIZE];
+        index.seek(pos);
+        index.readFully(record);
+        return nextRecord(ByteBuffer.wrap(record));
+    }
+
+    /** Return the commit id of RECORD. */
+    private static String id(ByteBuffer record) {
+        byte[] id = new byte[ID_SIZE];
+        record.get(0, id);
+        return bytesToHex(id);
+    }
+
+    /** Return the message of the encoded commit in RECORD. */
+    private static String message(ByteBuffer record) {
+        return Commit.message(record.slice(ID_SIZE + 4, record.limit() - ID_SIZE - 4));
+    }
+}
@@ -0,0 +1,336 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** A pack holds many objects in one file under objects/pack, next to a sorted index from object
+ *  id to the object's offset in the pack. Every object is deflate compressed, and a blob may be
+ *  stored as a delta from an earlier blob in the same pack. gc moves the loose objects into a
+ *  pack, reads look in the packs when there is no loose file.
+ *  @author Susie
+ */
+class Pack {
+
+    /** Object kinds, stored in both the pack and the index. */
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+    static final byte TREE = 3;
+
+    /** How an entry of the pack is stored. */
+    private static final byte WHOLE = 0;
+    private static final byte DELTA = 1;
+
+    /** First ints of the pack and index files, "GPK1" and "GID1". */
+    private static final int PACK_MAGIC = 0x47504b31;
+    private static final int INDEX_MAGIC = 0x47494431;
+
+    /** Bytes of the magic number and entry count at the front of both files. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Index entries are the binary id, the kind and the offset. */
+    private static final int ENTRY_SIZE = ID_SIZE + 1 + 8;
+
+    /** Blobs larger than this are left loose by gc, packing reads a blob into memory. */
+    static final long MAX_BLOB_SIZE = 16L << 20;
+
+    /** How many earlier versions of a file are tried as delta bases. */
+    private static final int WINDOW = 10;
+
+    /** Longest chain of deltas a blob may sit at the end of. */
+    private static final int MAX_DEPTH = 50;
+
+    /** The packs in objects/pack, loaded on first use. Readers run on many threads at once, so
+     *  the list is only ever published complete, and never changed after. */
+    private static volatile List<Pack> packs;
+
+    private final File packFile;
+    private final File indexFile;
+    private final int count;
+
+    private Pack(File indexFile) {
+        this.indexFile = indexFile;
+        String name = indexFile.getName();
+        packFile = join(indexFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+            if (index.readInt() != INDEX_MAGIC) {
+                throw new IllegalArgumentException("Bad pack index " + name);
+            }
+            count = index.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return all the packs of the repository. Threads that ask at once may each load them,
+     *  every one gets a complete list. */
+    private static List<Pack> packs() {
+        List<Pack> loaded = packs;
+        if (loaded == null) {
+            loaded = new ArrayList<>();
+            List<String> files = plainFilenamesIn(Repository.packs);
+            if (files != null) {
+                for (String file : files) {
+                    if (file.endsWith(".idx")) {
+                        loaded.add(new Pack(join(Repository.packs, file)));
+                    }
+                }
+            }
+            loaded = Collections.unmodifiableList(loaded);
+            packs = loaded;
+        }
+        return loaded;
+    }
+
+    /** Forget the packs loaded so far, they are listed again on next use. */
+    static void reload() {
+        packs = null;
+    }
+
+    /** Return true if some pack holds the object with the given sha1. */
+    static boolean contains(String id) {
+        byte[] key = hexToBytes(id);
+        if (key == null) {
+            return false;
+        }
+        for (Pack pack : packs()) {
+            if (pack.find(key) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the contents of the packed object with the given sha1, or null if no pack holds
+     *  it. A blob's contents are the file's bytes, a commit's are its binary encoding as Commit
+     *  writes it, a tree's are its bytes as Tree writes them. */
+    static byte[] read(String id) {
+        byte[] key = hexToBytes(id);
+        if (key == null) {
+            return null;
+        }
+        for (Pack pack : packs()) {
+            long offset = pack.find(key);
+            if (offset >= 0) {
+                try (RandomAccessFile in = new RandomAccessFile(pack.packFile, "r")) {
+                    return readEntry(in, offset);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return the ids of all the packed objects of the given KIND, in sorted order. */
+    static List<String> ids(byte kind) {
+        List<String> result = new ArrayList<>();
+        for (Pack pack : packs()) {
+            try (RandomAccessFile index = new RandomAccessFile(pack.indexFile, "r")) {
+                byte[] entry = new byte[ENTRY_SIZE];
+                index.seek(HEADER_SIZE);
+                for (int i = 0; i < pack.count; i++) {
+                    index.readFully(entry);
+                    if (entry[ID_SIZE] == kind) {
+                        result.add(bytesToHex(entry));
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Write a new pack holding COMMITS, which maps a commit id to the commit in the binary
+     *  format of Commit.encode, TREES, which maps a tree id to the tree's binary bytes, and the
+     *  blobs in BLOBGROUPS, by their contents. Commits and trees are stored whole. Each group is
+     *  the versions of one file, a blob is stored as a delta from one of the versions before it
+     *  when that is smaller. A blob may appear in several groups, it is stored once. The old
+     *  packs are deleted afterwards. */
+    static void write(Map<String, byte[]> commits, Map<String, byte[]> trees,
+                      Collection<List<String>> blobGroups) throws IOException {
+        if (!Repository.packs.exists()) {
+            Repository.packs.mkdir();
+        }
+        List<Pack> oldPacks = packs();
+        TreeMap<String, Long> offsets = new TreeMap<>();
+        Map<String, Byte> kinds = new HashMap<>();
+        Map<String, Integer> depths = new HashMap<>();
+
+        File tmpPack = join(Repository.packs, "tmp_pack");
+        try (RandomAccessFile out = new RandomAccessFile(tmpPack, "rw")) {
+            out.setLength(0);
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(0);
+            for (Map.Entry<String, byte[]> commit : commits.entrySet()) {
+                offsets.put(commit.getKey(), out.getFilePointer());
+                kinds.put(commit.getKey(), COMMIT);
+                writeEntry(out, COMMIT, WHOLE, -1, commit.getValue());
+            }
+            for (Map.Entry<String, byte[]> tree : trees.entrySet()) {
+                offsets.put(tree.getKey(), out.getFilePointer());
+                kinds.put(tree.getKey(), TREE);
+                writeEntry(out, TREE, WHOLE, -1, tree.getValue());
+            }
+            for (List<String> group : blobGroups) {
+                List<String> window = new ArrayList<>();
+                List<byte[]> windowContents = new ArrayList<>();
+                for (String id : group) {
+                    byte[] contents = null;
+                    if (!offsets.containsKey(id)) {
+                        contents = Blob.readContents(id);
+                        writeBlob(out, id, contents, window, windowContents, offsets, depths);
+                        kinds.put(id, BLOB);
+                    }
+                    if (window.size() == WINDOW) {
+                        window.remove(0);
+                        windowContents.remove(0);
+                    }
+                    window.add(id);
+                    windowContents.add(contents != null ? contents : Blob.readContents(id));
+                }
+            }
+            out.seek(4);
+            out.writeInt(offsets.size());
+        }
+
+        String name = "pack-" + sha1(new ArrayList<Object>(offsets.keySet()));
+        File tmpIndex = join(Repository.packs, "tmp_idx");
+        try (DataOutputStream index = new DataOutputStream(new FileOutputStream(tmpIndex))) {
+            index.writeInt(INDEX_MAGIC);
+            index.writeInt(offsets.size());
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                index.write(hexToBytes(entry.getKey()));
+                index.writeByte(kinds.get(entry.getKey()));
+                index.writeLong(entry.getValue());
+            }
+        }
+
+        //the index is renamed last, a pack is only found through its index. Both are synced
+        //before the old packs, and the loose objects gc deletes, are gone
+        File newPack = join(Repository.packs, name + ".pack");
+        File newIndex = join(Repository.packs, name + ".idx");
+        Durable.install(tmpPack, newPack);
+        Durable.install(tmpIndex, newIndex);
+        Durable.sync();
+        for (Pack old : oldPacks) {
+            if (!old.indexFile.equals(newIndex)) {
+                old.indexFile.delete();
+                old.packFile.delete();
+            }
+        }
+        packs = null;
+    }
+
+    /** Write blob ID with the given CONTENTS to OUT, as a delta from the smallest delta the
+     *  blobs in WINDOW give, or whole if no delta is worth it. */
+    private static void writeBlob(RandomAccessFile out, String id, byte[] contents,
+                                  List<String> window, List<byte[]> windowContents,
+                                  Map<String, Long> offsets, Map<String, Integer> depths)
+        throws IOException {
+        byte[] best = null;
+        String bestBase = null;
+        for (int i = 0; i < window.size(); i++) {
+            String base = window.get(i);
+            if (depths.getOrDefault(base, 0) >= MAX_DEPTH) {
+                continue;
+            }
+            byte[] delta = Delta.create(windowContents.get(i), contents);
+            if (delta.length < contents.length / 2 && (best == null || delta.length < best.length)) {
+                best = delta;
+                bestBase = base;
+            }
+        }
+        offsets.put(id, out.getFilePointer());
+        if (best == null) {
+            writeEntry(out, BLOB, WHOLE, -1, contents);
+        } else {
+            depths.put(id, depths.getOrDefault(bestBase, 0) + 1);
+            writeEntry(out, BLOB, DELTA, offsets.get(bestBase), best);
+        }
+    }
+
+    /** Write one entry to OUT: the kind, how it is stored, the offset of the delta base if
+     *  there is one, and DATA deflate compressed. */
+    private static void writeEntry(RandomAccessFile out, byte kind, byte storage, long base,
+                                   byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(compressed,
+            new Deflater(Deflater.BEST_COMPRESSION))) {
+            deflater.write(data);
+        }
+        out.writeByte(kind);
+        out.writeByte(storage);
+        if (storage == DELTA) {
+            out.writeLong(base);
+        }
+        out.writeInt(compressed.size());
+        out.write(compressed.toByteArray());
+    }
+
+    /** Return the contents of the entry at OFFSET in the pack IN, following the delta chain. */
+    private static byte[] readEntry(RandomAccessFile in, long offset) throws IOException {
+        in.seek(offset);
+        in.readByte();
+        byte storage = in.readByte();
+        long base = storage == DELTA ? in.readLong() : -1;
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        byte[] data;
+        try (InflaterInputStream inflater =
+                 new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            data = inflater.readAllBytes();
+        }
+        if (storage == DELTA) {
+            return Delta.apply(readEntry(in, base), data);
+        }
+        return data;
+    }
+
+    /** Return the offset in the pack of the object with the binary id KEY, or -1 if this pack
+     *  does not hold it. Binary search over the index entries. */
+    private long find(byte[] key) {
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+            byte[] id = new byte[ID_SIZE];
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long entry = HEADER_SIZE + (long) mid * ENTRY_SIZE;
+                index.seek(entry);
+                index.readFully(id);
+                int cmp = Arrays.compareUnsigned(id, key);
+                if (cmp == 0) {
+                    index.seek(entry + ID_SIZE + 1);
+                    return index.readLong();
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return -1;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Runs a piece of file work, such as stat and hashing, over many working files at once on a
+ *  ForkJoin pool. Results come back in the order of the file names given, so callers that pass
+ *  the sorted names from Utils.plainFilenamesIn get sorted results.
+ *  The number of threads is the gitlet.parallelism system property, or else the
+ *  GITLET_PARALLELISM environment variable, or else the number of processors.
+ *  @author Susie
+ */
+class ParallelScan {
+
+    /** Work done for one file name, which may fail with an IOException. */
+    interface FileTask<T> {
+        T apply(String filename) throws IOException;
+    }
+
+    /** Fewer files than this are done on the calling thread, it is not worth the hand-off. */
+    private static final int MIN_PARALLEL = 4;
+
+    /** The pool, made on first use and kept for the daemon's later commands. */
+    private static ForkJoinPool pool;
+
+    /** Return TASK applied to each of FILENAMES, in the same order. */
+    static <T> List<T> map(List<String> filenames, FileTask<T> task) throws IOException {
+        List<T> results = new ArrayList<>(filenames.size());
+        int threads = parallelism();
+        if (threads <= 1 || filenames.size() < MIN_PARALLEL) {
+            for (String filename : filenames) {
+                results.add(task.apply(filename));
+            }
+            return results;
+        }
+
+        List<Callable<T>> work = new ArrayList<>(filenames.size());
+        for (String filename : filenames) {
+            work.add(() -> task.apply(filename));
+        }
+        for (Future<T> result : pool(threads).invokeAll(work)) {
+            try {
+                results.add(result.get());
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while scanning files");
+            } catch (ExecutionException excp) {
+                Throwable cause = excp.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return results;
+    }
+
+    /** Return the configured number of threads. */
+    static int parallelism() {
+        String setting = System.getProperty("gitlet.parallelism", System.getenv("GITLET_PARALLELISM"));
+        if (setting != null) {
+            try {
+                return Math.max(1, Integer.parseInt(setting.trim()));
+            } catch (NumberFormatException excp) {
+                //fall back to the default
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Return the pool with THREADS threads, replacing the old one if the setting changed. */
+    private static synchronized ForkJoinPool pool(int threads) {
+        if (pool == null || pool.getParallelism() != threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+}
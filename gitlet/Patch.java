@@ -0,0 +1,378 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The changes to one file between two versions, printed as a unified diff or a --stat line.
+ *  The versions are streamed, from the object store or the working directory, and never held
+ *  whole: a first pass hashes each line to a long, Diff finds the changes between the two lists
+ *  of hashes, and a second pass keeps only the lines the hunks print, the changed lines and
+ *  CONTEXT lines around them. So a large file costs two reads and a long per line, and --stat
+ *  needs only the first pass. A version with a NUL byte is binary, and only said to differ.
+ *  @author Susie
+ */
+class Patch {
+
+    /** Lines of context printed around each change. */
+    private static final int CONTEXT = 3;
+
+    /** Widest bar of pluses and minuses of a --stat line. */
+    private static final int STAT_WIDTH = 50;
+
+    /** A version of a file, which can be read more than once. */
+    interface Source {
+        /** Write the contents to OUT. */
+        void copyTo(OutputStream out) throws IOException;
+    }
+
+    /** Return the source of the blob with the given sha1. */
+    static Source blob(String blobID) {
+        return out -> Blob.copyContents(blobID, out);
+    }
+
+    /** Return the source of FILE in the working directory. */
+    static Source file(File file) {
+        return out -> Files.copy(file.toPath(), out);
+    }
+
+    /** The path of the file. */
+    final String path;
+    /** The two versions, null where the file does not exist. */
+    private final Source oldSource;
+    private final Source newSource;
+    /** True if either version is binary, then there are no edits. */
+    private final boolean binary;
+    /** The number of lines of the old version. */
+    private final int oldLength;
+    private final List<Diff.Edit> edits;
+    private final int insertions;
+    private final int deletions;
+
+    private Patch(String path, Source oldSource, Source newSource, boolean binary,
+                  int oldLength, List<Diff.Edit> edits) {
+        this.path = path;
+        this.oldSource = oldSource;
+        this.newSource = newSource;
+        this.binary = binary;
+        this.oldLength = oldLength;
+        this.edits = edits;
+        int added = 0;
+        int removed = 0;
+        for (Diff.Edit edit : edits) {
+            added += edit.endB - edit.beginB;
+            removed += edit.endA - edit.beginA;
+        }
+        this.insertions = added;
+        this.deletions = removed;
+    }
+
+    /** Return the changes to PATH from the version OLDSOURCE to NEWSOURCE, either null where the
+     *  file does not exist. */
+    static Patch of(String path, Source oldSource, Source newSource) throws IOException {
+        Hashes a = hash(oldSource);
+        Hashes b = hash(newSource);
+        if (a.binary || b.binary) {
+            return new Patch(path, oldSource, newSource, true, a.count, List.of());
+        }
+        return new Patch(path, oldSource, newSource, false, a.count,
+            Diff.diff(a.lines(), b.lines()));
+    }
+
+    /** Print the --stat lines of PATCHES to OUT, the paths padded to one width, and the totals. */
+    static void printStat(List<Patch> patches, PrintWriter out) {
+        int nameWidth = 0;
+        int most = 0;
+        int insertions = 0;
+        int deletions = 0;
+        for (Patch patch : patches) {
+            nameWidth = Math.max(nameWidth, patch.path.length());
+            most = Math.max(most, patch.insertions + patch.deletions);
+            insertions += patch.insertions;
+            deletions += patch.deletions;
+        }
+        int countWidth = String.valueOf(most).length();
+        for (Patch patch : patches) {
+            out.print(' ');
+            out.print(patch.path);
+            out.print(" ".repeat(nameWidth - patch.path.length()));
+            out.print(" | ");
+            if (patch.binary) {
+                out.print("Bin\n");
+                continue;
+            }
+            int changed = patch.insertions + patch.deletions;
+            String count = String.valueOf(changed);
+            out.print(" ".repeat(countWidth - count.length()));
+            out.print(count);
+            //the bar is scaled down once the largest change does not fit
+            int plus = patch.insertions;
+            int minus = patch.deletions;
+            if (most > STAT_WIDTH) {
+                plus = scale(plus, most);
+                minus = scale(minus, most);
+            }
+            if (plus + minus > 0) {
+                out.print(' ');
+            }
+            out.print("+".repeat(plus));
+            out.print("-".repeat(minus));
+            out.print('\n');
+        }
+        out.print(" " + patches.size() + (patches.size() == 1 ? " file" : " files") + " changed");
+        if (insertions > 0 || deletions == 0) {
+            out.print(", " + insertions + (insertions == 1 ? " insertion(+)" : " insertions(+)"));
+        }
+        if (deletions > 0 || insertions == 0) {
+            out.print(", " + deletions + (deletions == 1 ? " deletion(-)" : " deletions(-)"));
+        }
+        out.print('\n');
+    }
+
+    /** Return N lines in a bar where MOST lines take STAT_WIDTH, at least one if N is not 0. */
+    private static int scale(int n, int most) {
+        return n == 0 ? 0 : Math.max(1, (int) ((long) n * STAT_WIDTH / most));
+    }
+
+    /** Print the changes to OUT as a unified diff, like git diff does, reading the two versions
+     *  again for the lines of the hunks. */
+    void print(PrintWriter out) throws IOException {
+        String oldName = oldSource == null ? "/dev/null" : "a/" + path;
+        String newName = newSource == null ? "/dev/null" : "b/" + path;
+        out.print("diff --git a/" + path + " b/" + path + "\n");
+        if (oldSource == null) {
+            out.print("new file mode 100644\n");
+        } else if (newSource == null) {
+            out.print("deleted file mode 100644\n");
+        }
+        if (binary) {
+            out.print("Binary files " + oldName + " and " + newName + " differ\n");
+            return;
+        }
+        if (edits.isEmpty()) {
+            return;
+        }
+        out.print("--- " + oldName + "\n");
+        out.print("+++ " + newName + "\n");
+
+        //each hunk is a run of edits whose context touches, from edits[first] to edits[last]
+        List<int[]> hunks = new ArrayList<>();
+        int first = 0;
+        for (int i = 1; i <= edits.size(); i++) {
+            if (i == edits.size()
+                || edits.get(i).beginA - edits.get(i - 1).endA > 2 * CONTEXT) {
+                hunks.add(new int[] {first, i - 1});
+                first = i;
+            }
+        }
+        List<int[]> wantedA = new ArrayList<>();
+        List<int[]> wantedB = new ArrayList<>();
+        for (int[] hunk : hunks) {
+            wantedA.add(new int[] {Math.max(0, edits.get(hunk[0]).beginA - CONTEXT),
+                Math.min(oldLength, edits.get(hunk[1]).endA + CONTEXT)});
+            for (int i = hunk[0]; i <= hunk[1]; i++) {
+                wantedB.add(new int[] {edits.get(i).beginB, edits.get(i).endB});
+            }
+        }
+        Map<Integer, byte[]> oldLines = collect(oldSource, wantedA);
+        Map<Integer, byte[]> newLines = collect(newSource, wantedB);
+
+        for (int h = 0; h < hunks.size(); h++) {
+            Diff.Edit firstEdit = edits.get(hunks.get(h)[0]);
+            Diff.Edit lastEdit = edits.get(hunks.get(h)[1]);
+            int startA = wantedA.get(h)[0];
+            int endA = wantedA.get(h)[1];
+            int startB = startA + firstEdit.beginB - firstEdit.beginA;
+            int endB = endA + lastEdit.endB - lastEdit.endA;
+            out.print("@@ -" + range(startA, endA) + " +" + range(startB, endB) + " @@\n");
+            int line = startA;
+            for (int i = hunks.get(h)[0]; i <= hunks.get(h)[1]; i++) {
+                Diff.Edit edit = edits.get(i);
+                printLines(out, ' ', oldLines, line, edit.beginA);
+                printLines(out, '-', oldLines, edit.beginA, edit.endA);
+                printLines(out, '+', newLines, edit.beginB, edit.endB);
+                line = edit.endA;
+            }
+            printLines(out, ' ', oldLines, line, endA);
+        }
+    }
+
+    /** Return the range of lines START to END, exclusive and counted from 0, as a hunk header
+     *  gives it: the first line counted from 1 and the number of lines, which is left out if it
+     *  is 1. An empty range starts at the line before it. */
+    private static String range(int start, int end) {
+        if (end - start == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (end == start ? start : start + 1) + "," + (end - start);
+    }
+
+    /** Print LINES from FROM to TO, exclusive, to OUT, each after PREFIX. */
+    private static void printLines(PrintWriter out, char prefix, Map<Integer, byte[]> lines,
+                                   int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte[] line = lines.get(i);
+            out.print(prefix);
+            out.print(new String(line, StandardCharsets.UTF_8));
+            if (line.length == 0 || line[line.length - 1] != '\n') {
+                out.print("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** Return the line hashes of SOURCE, none if it is null. */
+    private static Hashes hash(Source source) throws IOException {
+        Hashes hashes = new Hashes();
+        if (source != null) {
+            source.copyTo(hashes);
+            hashes.close();
+        }
+        return hashes;
+    }
+
+    /** Return the lines of SOURCE in the ranges WANTED, by line number. WANTED is in order. */
+    private static Map<Integer, byte[]> collect(Source source, List<int[]> wanted)
+        throws IOException {
+        Lines lines = new Lines(wanted);
+        if (source != null && !wanted.isEmpty()) {
+            source.copyTo(lines);
+            lines.close();
+        }
+        return lines.lines;
+    }
+
+    /** Takes a text and keeps the 64-bit FNV-1a hash of each line, with its line terminator,
+     *  and whether there is a NUL byte. */
+    private static class Hashes extends OutputStream {
+        private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long PRIME = 0x100000001b3L;
+
+        private long[] hashes = new long[64];
+        private int count;
+        private long hash = OFFSET_BASIS;
+        private boolean inLine;
+        private boolean binary;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            long h = hash;
+            for (int i = off; i < off + len; i++) {
+                byte b = bytes[i];
+                h = (h ^ (b & 0xff)) * PRIME;
+                if (b == '\n') {
+                    add(h);
+                    h = OFFSET_BASIS;
+                } else if (b == 0) {
+                    binary = true;
+                }
+            }
+            hash = h;
+            if (len > 0) {
+                inLine = bytes[off + len - 1] != '\n';
+            }
+        }
+
+        /** Ends the last line, if the text does not end in a line terminator. */
+        @Override
+        public void close() {
+            if (inLine) {
+                add(hash);
+                hash = OFFSET_BASIS;
+                inLine = false;
+            }
+        }
+
+        private void add(long h) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            hashes[count++] = h;
+        }
+
+        long[] lines() {
+            return Arrays.copyOf(hashes, count);
+        }
+    }
+
+    /** Takes a text and keeps the lines in the given ranges of line numbers. */
+    private static class Lines extends OutputStream {
+        private final List<int[]> wanted;
+        private final Map<Integer, byte[]> lines = new HashMap<>();
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        /** The number of the line being read, and the first range not passed yet. */
+        private int number;
+        private int range;
+
+        Lines(List<int[]> wanted) {
+            this.wanted = new ArrayList<>();
+            for (int[] lines : wanted) {
+                if (lines[0] < lines[1]) {
+                    this.wanted.add(lines);
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            int end = off + len;
+            int start = off;
+            while (start < end && range < wanted.size()) {
+                int newline = start;
+                while (newline < end && bytes[newline] != '\n') {
+                    newline++;
+                }
+                boolean keep = number >= wanted.get(range)[0];
+                if (newline == end) {
+                    if (keep) {
+                        line.write(bytes, start, end - start);
+                    }
+                    return;
+                }
+                if (keep) {
+                    line.write(bytes, start, newline + 1 - start);
+                }
+                endLine(keep);
+                start = newline + 1;
+            }
+        }
+
+        /** Ends the last line, if the text does not end in a line terminator. */
+        @Override
+        public void close() {
+            if (line.size() > 0) {
+                endLine(true);
+            }
+        }
+
+        /** Ends the line being read, keeping it if KEEP. */
+        private void endLine(boolean keep) {
+            if (keep) {
+                lines.put(number, line.toByteArray());
+                line.reset();
+            }
+            number++;
+            while (range < wanted.size() && number >= wanted.get(range)[1]) {
+                range++;
+            }
+        }
+    }
+}
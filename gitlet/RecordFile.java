@@ -0,0 +1,291 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A file of fixed width binary records, the layout of the commit index, the commit graph and
+ *  the table of message hashes. The file is a magic number and the count of sorted records,
+ *  then that many records sorted by their leading key bytes, then the records added since, in
+ *  the order they were added. A record is found with a binary search among the sorted ones and
+ *  a scan of the rest.
+ *  A new record is appended in place, so adding one costs a binary search and a read of the
+ *  unsorted records, whatever the size of the file. Once there are maxTail unsorted records
+ *  the whole file is written again sorted, through a temporary file, see Durable; gc does the
+ *  same. The count of records is the length of the file in whole records, so a record cut short
+ *  by a crash is ignored, and the next append writes over it.
+ *  @author Susie
+ */
+class RecordFile implements AutoCloseable {
+
+    /** Bytes of the magic number and sorted count at the front of the file. */
+    static final int HEADER_SIZE = 8;
+
+    /** Default most unsorted records before the file is sorted again. */
+    private static final int DEFAULT_MAX_TAIL = 1024;
+
+    private final File file;
+    private final int recordSize;
+
+    /** The open file, or null if the whole file was read into RECORDS. */
+    private final RandomAccessFile raf;
+
+    /** The records read into memory: all of them, or only the unsorted ones if RAF is open. */
+    private ByteBuffer records;
+
+    /** Number of sorted records, and of all records. */
+    private final int sorted;
+    private int count;
+
+    /** True once a record is appended. */
+    private boolean appended;
+
+    private RecordFile(File file, int recordSize, RandomAccessFile raf, ByteBuffer records,
+                       int sorted, int count) {
+        this.file = file;
+        this.recordSize = recordSize;
+        this.raf = raf;
+        this.records = records;
+        this.sorted = sorted;
+        this.count = count;
+    }
+
+    /** Return FILE, of records of RECORDSIZE bytes, open to look records up in, and to append
+     *  to if MODE is "rw" rather than "r". Only the header and the unsorted records are read.
+     *  FILE must start with MAGIC. */
+    static RecordFile open(File file, int magic, int recordSize, String mode)
+        throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode);
+        try {
+            int sorted = readHeader(raf, magic, file);
+            int count = (int) ((raf.length() - HEADER_SIZE) / recordSize);
+            if (sorted > count) {
+                throw new IllegalArgumentException("Bad index " + file.getName());
+            }
+            byte[] tail = new byte[(count - sorted) * recordSize];
+            raf.seek(HEADER_SIZE + (long) sorted * recordSize);
+            raf.readFully(tail);
+            return new RecordFile(file, recordSize, raf, ByteBuffer.wrap(tail), sorted, count);
+        } catch (IOException | RuntimeException excp) {
+            raf.close();
+            throw excp;
+        }
+    }
+
+    /** Return FILE, of records of RECORDSIZE bytes, read whole into memory, for walks that
+     *  visit many records. FILE must start with MAGIC. */
+    static RecordFile load(File file, int magic, int recordSize) {
+        ByteBuffer bytes = ByteBuffer.wrap(Utils.readContents(file));
+        if (bytes.remaining() < HEADER_SIZE || bytes.getInt() != magic) {
+            throw new IllegalArgumentException("Bad index " + file.getName());
+        }
+        int sorted = bytes.getInt();
+        int count = bytes.remaining() / recordSize;
+        if (sorted < 0 || sorted > count) {
+            throw new IllegalArgumentException("Bad index " + file.getName());
+        }
+        return new RecordFile(file, recordSize, null, bytes.slice(), sorted, count);
+    }
+
+    /** Return true if FILE exists and starts with MAGIC. */
+    static boolean isCurrent(File file, int magic) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.length() >= HEADER_SIZE && raf.readInt() == magic;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replace FILE with one holding RECORDS, which must be sorted, all counted as sorted. */
+    static void write(File file, int magic, List<byte[]> records) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.writeBytes(ByteBuffer.allocate(HEADER_SIZE).putInt(magic).putInt(records.size())
+            .array());
+        for (byte[] record : records) {
+            bytes.writeBytes(record);
+        }
+        Durable.replace(file, bytes.toByteArray());
+    }
+
+    /** Replace FILE, of records of RECORDSIZE bytes starting with MAGIC, with its records all
+     *  sorted. For files whose records do not refer to each other by number. */
+    static void sort(File file, int magic, int recordSize) {
+        RecordFile records = load(file, magic, recordSize);
+        List<byte[]> all = new ArrayList<>(records.count());
+        for (int pos = 0; pos < records.count(); pos++) {
+            all.add(records.record(pos));
+        }
+        all.sort(Arrays::compareUnsigned);
+        write(file, magic, all);
+    }
+
+    /** Return the most unsorted records a file has before it is sorted again, the
+     *  gitlet.maxTail system property or the GITLET_MAX_TAIL environment variable, or else
+     *  1024. */
+    static int maxTail() {
+        String setting = System.getProperty("gitlet.maxTail", System.getenv("GITLET_MAX_TAIL"));
+        if (setting != null) {
+            try {
+                return Math.max(1, Integer.parseInt(setting.trim()));
+            } catch (NumberFormatException excp) {
+                //fall back to the default
+            }
+        }
+        return DEFAULT_MAX_TAIL;
+    }
+
+    /** Return the number of sorted records, which come first. */
+    int sorted() {
+        return sorted;
+    }
+
+    /** Return the number of records. */
+    int count() {
+        return count;
+    }
+
+    /** Return true if the file has as many unsorted records as it should before it is sorted
+     *  again. */
+    boolean tailFull() {
+        return count - sorted >= maxTail();
+    }
+
+    /** Return the record at POS. */
+    byte[] record(int pos) {
+        byte[] record = new byte[recordSize];
+        if (raf == null) {
+            records.get(pos * recordSize, record);
+        } else if (pos >= sorted) {
+            records.get((pos - sorted) * recordSize, record);
+        } else {
+            try {
+                raf.seek(HEADER_SIZE + (long) pos * recordSize);
+                raf.readFully(record);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return record;
+    }
+
+    /** Return the int at OFFSET in the record at POS. */
+    int getInt(int pos, int offset) {
+        return raf == null ? records.getInt(pos * recordSize + offset)
+            : ByteBuffer.wrap(record(pos)).getInt(offset);
+    }
+
+    /** Return the long at OFFSET in the record at POS. */
+    long getLong(int pos, int offset) {
+        return raf == null ? records.getLong(pos * recordSize + offset)
+            : ByteBuffer.wrap(record(pos)).getLong(offset);
+    }
+
+    /** Return the position of the first sorted record whose leading bytes are not less than
+     *  KEY, or the sorted count if there is none. */
+    int lowerBound(byte[] key) {
+        int lo = 0;
+        int hi = sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the position of the first record, sorted or not, whose leading bytes are KEY,
+     *  or -1 if there is none. */
+    int find(byte[] key) {
+        int pos = lowerBound(key);
+        if (pos < sorted && compare(pos, key) == 0) {
+            return pos;
+        }
+        for (pos = sorted; pos < count; pos++) {
+            if (compare(pos, key) == 0) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the positions of every record whose leading bytes are KEY, the sorted ones first,
+     *  in order. */
+    List<Integer> findAll(byte[] key) {
+        List<Integer> result = new ArrayList<>();
+        for (int pos = lowerBound(key); pos < sorted && compare(pos, key) == 0; pos++) {
+            result.add(pos);
+        }
+        for (int pos = sorted; pos < count; pos++) {
+            if (compare(pos, key) == 0) {
+                result.add(pos);
+            }
+        }
+        return result;
+    }
+
+    /** Compare the leading bytes of the record at POS with KEY. */
+    int compare(int pos, byte[] key) {
+        return Arrays.compareUnsigned(record(pos), 0, key.length, key, 0, key.length);
+    }
+
+    /** Append RECORD, after the last whole record, and return its position. Only for a file
+     *  open with mode "rw". */
+    int append(byte[] record) {
+        try {
+            long end = HEADER_SIZE + (long) count * recordSize;
+            raf.setLength(end);
+            raf.seek(end);
+            raf.write(record);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        //kept with the other unsorted records, so it is found by later lookups
+        ByteBuffer tail = ByteBuffer.allocate(records.capacity() + recordSize);
+        tail.put(records.array(), 0, records.capacity()).put(record);
+        records = tail;
+        appended = true;
+        return count++;
+    }
+
+    /** Close the file. If records were appended, the next sync flushes them. */
+    @Override
+    public void close() {
+        if (raf == null) {
+            return;
+        }
+        try {
+            raf.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (appended) {
+                Durable.appended(file);
+            }
+        }
+    }
+
+    /** Return the number of sorted records in the header of RAF, the file FILE, checking its
+     *  magic number. */
+    private static int readHeader(RandomAccessFile raf, int magic, File file) throws IOException {
+        raf.seek(0);
+        if (raf.length() < HEADER_SIZE || raf.readInt() != magic) {
+            throw new IllegalArgumentException("Bad index " + file.getName());
+        }
+        int sorted = raf.readInt();
+        if (sorted < 0) {
+            throw new IllegalArgumentException("Bad index " + file.getName());
+        }
+        return sorted;
+    }
+}
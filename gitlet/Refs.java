@@ -0,0 +1,203 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The branches of the repository. A branch is a loose file under refs/heads holding the id of
+ *  its tip, or a line of the packed-refs file, which gc writes with every branch in it so that
+ *  refs/heads stays small. packed-refs has a line "id name" per branch, sorted by name, and a
+ *  branch is looked up in it with a binary search. A loose file wins over the packed line of the
+ *  same branch, so moving a branch only writes its loose file.
+ *  Every move of a branch, and of HEAD, is appended to its reflog under logs, a line
+ *  "old new seconds zone" and a tab and the reason, old being all zeros for a new branch.
+ *  @author Susie
+ */
+class Refs {
+
+    /** The id in a reflog of a branch that did not exist yet. */
+    private static final String NO_COMMIT = "0".repeat(UID_LENGTH);
+
+    /** Zone offset of the reflog times. */
+    private static final DateTimeFormatter ZONE = DateTimeFormatter.ofPattern("Z");
+
+    /** The packed-refs file, read on first use. */
+    private static byte[] packed;
+
+    /** Forget packed-refs as read so far, it is read again on next use. */
+    static void reload() {
+        packed = null;
+    }
+
+    /** Return the name of the branch checked out, from HEAD. */
+    static String current() {
+        return new File(readContentsAsString(Repository.HEAD)).getName();
+    }
+
+    /** Return the tip of BRANCH, or null if there is no such branch. */
+    static String read(String branch) {
+        File loose = join(Repository.heads, branch);
+        if (loose.isFile()) {
+            return readContentsAsString(loose);
+        }
+        return findPacked(branch);
+    }
+
+    /** Return true if BRANCH exists. */
+    static boolean exists(String branch) {
+        return read(branch) != null;
+    }
+
+    /** Return the names of all the branches, sorted. */
+    static List<String> names() {
+        TreeSet<String> names = new TreeSet<>(readPacked().keySet());
+        List<String> loose = plainFilenamesIn(Repository.heads);
+        if (loose != null) {
+            names.addAll(loose);
+        }
+        return new ArrayList<>(names);
+    }
+
+    /** Point BRANCH at the commit ID, creating it if needed, and log the move with REASON. */
+    static void update(String branch, String id, String reason) {
+        String old = read(branch);
+        Durable.replace(join(Repository.heads, branch), id.getBytes(StandardCharsets.US_ASCII));
+        log(join(Repository.LOGS_DIR, "refs", "heads", branch), old, id, reason);
+    }
+
+    /** Log in the reflog of HEAD that it moved from the commit OLD to ID, for REASON. */
+    static void logHead(String old, String id, String reason) {
+        log(join(Repository.LOGS_DIR, "HEAD"), old, id, reason);
+    }
+
+    /** Delete BRANCH and its reflog. */
+    static void delete(String branch) {
+        join(Repository.heads, branch).delete();
+        join(Repository.LOGS_DIR, "refs", "heads", branch).delete();
+        TreeMap<String, String> refs = readPacked();
+        if (refs.remove(branch) != null) {
+            writePacked(refs);
+        }
+    }
+
+    /** Move every loose branch into packed-refs. */
+    static void pack() {
+        TreeMap<String, String> refs = readPacked();
+        List<String> loose = plainFilenamesIn(Repository.heads);
+        if (loose == null || loose.isEmpty()) {
+            return;
+        }
+        for (String branch : loose) {
+            refs.put(branch, readContentsAsString(join(Repository.heads, branch)));
+        }
+        writePacked(refs);
+        for (String branch : loose) {
+            join(Repository.heads, branch).delete();
+        }
+    }
+
+    /** Return the lines of the reflog of REF, "HEAD" or a branch, oldest first, or null if it
+     *  has none. */
+    static List<String> reflog(String ref) {
+        File log = ref.equals("HEAD") ? join(Repository.LOGS_DIR, "HEAD")
+            : join(Repository.LOGS_DIR, "refs", "heads", ref);
+        if (!log.isFile()) {
+            return null;
+        }
+        try {
+            return Files.readAllLines(log.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append the move of a ref from OLD to ID for REASON to the reflog LOG. */
+    private static void log(File log, String old, String id, String reason) {
+        log.getParentFile().mkdirs();
+        Instant now = Instant.now();
+        String line = (old == null ? NO_COMMIT : old) + " " + id + " " + now.getEpochSecond()
+            + " " + ZONE.format(now.atZone(ZoneId.systemDefault())) + "\t" + reason + "\n";
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(log, true),
+                 StandardCharsets.UTF_8)) {
+            out.write(line);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the id of BRANCH in packed-refs, or null if it is not there. The lines are sorted,
+     *  so the search halves the range each time, starting over at the line it lands in. */
+    private static String findPacked(String branch) {
+        byte[] refs = loadPacked();
+        int low = 0;
+        int high = refs.length;
+        while (low < high) {
+            int start = (low + high) / 2;
+            while (start > low && refs[start - 1] != '\n') {
+                start--;
+            }
+            int end = start;
+            while (end < high && refs[end] != '\n') {
+                end++;
+            }
+            String name = new String(refs, start + UID_LENGTH + 1, end - start - UID_LENGTH - 1,
+                StandardCharsets.UTF_8);
+            int cmp = name.compareTo(branch);
+            if (cmp == 0) {
+                return new String(refs, start, UID_LENGTH, StandardCharsets.US_ASCII);
+            } else if (cmp < 0) {
+                low = end + 1;
+            } else {
+                high = start;
+            }
+        }
+        return null;
+    }
+
+    /** Return the branches in packed-refs, from name to id. */
+    private static TreeMap<String, String> readPacked() {
+        TreeMap<String, String> refs = new TreeMap<>();
+        String contents = new String(loadPacked(), StandardCharsets.UTF_8);
+        for (String line : contents.split("\n")) {
+            if (!line.isEmpty()) {
+                refs.put(line.substring(UID_LENGTH + 1), line.substring(0, UID_LENGTH));
+            }
+        }
+        return refs;
+    }
+
+    /** Replace packed-refs with REFS. The new file is written aside and renamed over it, so the
+     *  branches are never seen half written. */
+    private static void writePacked(Map<String, String> refs) {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            contents.append(ref.getValue()).append(' ').append(ref.getKey()).append('\n');
+        }
+        byte[] bytes = contents.toString().getBytes(StandardCharsets.UTF_8);
+        Durable.replace(Repository.PACKED_REFS, bytes);
+        packed = bytes;
+    }
+
+    /** Return the bytes of packed-refs, empty if there is none. */
+    private static byte[] loadPacked() {
+        if (packed == null) {
+            packed = Repository.PACKED_REFS.isFile()
+                ? readContents(Repository.PACKED_REFS) : new byte[0];
+        }
+        return packed;
+    }
+}
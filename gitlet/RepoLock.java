@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/** The lock on .gitlet/lock that keeps gitlet processes sharing a repository from losing each
+ *  other's changes. A command that changes the stage, a ref or the objects holds it exclusively
+ *  for the whole command. A command that only reads, like log, status or find, holds it shared,
+ *  so any number of them run together, but never while a change is half made. status and diff,
+ *  which may save the stage's stat cache, first trade the shared lock for an exclusive one with
+ *  tryExclusive, and skip the save when another process holds the lock. The lock is an
+ *  operating system lock on the file, so it goes away with the process that holds it, even one
+ *  that was killed.
+ *  A process waits for the lock, polling with FileChannel.tryLock, for up to the
+ *  gitlet.lockTimeout system property in milliseconds, or else 10 seconds.
+ *  @author Susie
+ */
+class RepoLock {
+
+    /** Default milliseconds to wait for the lock. */
+    private static final long DEFAULT_TIMEOUT = 10_000;
+
+    /** Longest sleep between two tries. */
+    private static final long MAX_SLEEP = 100;
+
+    /** The open lock file and the lock held on it, or null when no lock is held. */
+    private static FileChannel channel;
+    private static FileLock lock;
+
+    /** Take the lock, shared if SHARED and otherwise exclusive, waiting while another process
+     *  holds it in a way that conflicts. Aborts the command if it waits too long. */
+    static void acquire(boolean shared) throws IOException {
+        if (lock != null) {
+            return;
+        }
+        channel = FileChannel.open(Repository.LOCK_FILE.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        long deadline = System.currentTimeMillis() + timeout();
+        long sleep = 1;
+        while ((lock = channel.tryLock(0, Long.MAX_VALUE, shared)) == null) {
+            if (System.currentTimeMillis() >= deadline) {
+                release();
+                System.out.println("Another gitlet process is using this repository.");
+                Utils.exit(0);
+            }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                release();
+                throw new IOException("Interrupted while waiting for the repository lock");
+            }
+            sleep = Math.min(sleep * 2, MAX_SLEEP);
+        }
+    }
+
+    /** Trade a shared lock for an exclusive one, if no other process holds the lock, without
+     *  waiting. Return true if the lock is now held exclusively. The shared lock is given up
+     *  first, so another process may have changed the repository before this one got it, and
+     *  the caller must check that what it read is still current. If the exclusive lock is
+     *  not free, the shared lock is taken back if it can be. */
+    static boolean tryExclusive() throws IOException {
+        if (lock == null) {
+            return false;
+        }
+        if (!lock.isShared()) {
+            return true;
+        }
+        lock.release();
+        lock = channel.tryLock(0, Long.MAX_VALUE, false);
+        if (lock != null) {
+            return true;
+        }
+        lock = channel.tryLock(0, Long.MAX_VALUE, true);
+        return false;
+    }
+
+    /** Give up the lock, if it is held. */
+    static void release() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            //the lock goes with the channel anyway
+        } finally {
+            lock = null;
+            channel = null;
+        }
+    }
+
+    /** Return the milliseconds to wait for the lock. */
+    private static long timeout() {
+        String setting = System.getProperty("gitlet.lockTimeout");
+        if (setting != null) {
+            try {
+                return Math.max(0, Long.parseLong(setting.trim()));
+            } catch (NumberFormatException excp) {
+                //fall back to the default
+            }
+        }
+        return DEFAULT_TIMEOUT;
+    }
+}
@@ -2,6 +2,19 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import jdk.jfr.consumer.RecordingFile;
 
 import static gitlet.Utils.*;
@@ -28,39 +41,280 @@ public class Repository {
     /**
      * .gitlet/
      *  - objects/
-     *    - blob/
-     *    - commits/
+     *    - blob/          fanned out by the first two hex digits, blobs/ab/cdef...
+     *    - commits/       fanned out the same way
+     *    - trees/         directories of the commits, fanned out the same way
+     *    - chunks/        pieces of large files, fanned out the same way
+     *    - commit-index   sorted ids of all commits
+     *    - commit-graph   parents and generation numbers of all commits
+     *    - message-index  messages and headers of all commits, in the order they were made
+     *    - pack/         packed objects, written by gc
      *  - refs            the newest commit in all branches
      *    - heads            a ref that points to the tip (latest commit) of a branch.
      *      - master/main
      *    - remotes
+     *  - packed-refs        tips of the branches packed by gc, one "id name" line per branch, sorted
+     *  - logs/              reflogs, every move of HEAD and of each branch
+     *    - HEAD
+     *    - refs/heads/
      *  - HEAD               the currently checked-out branch's latest commit in Gitlet/ a commit currently checked out in the working directory, a specific git ref./checkout command will move HEAD to a specific commit.
      *  - stages/index
+     *  - daemon.sock        only while a daemon is running
+     *  - lock               locked by every command while it runs
+     *  - tmp/               files being written, before they are renamed into place
      *    */
     public static final File OBJECT_DIR = join (GITLET_DIR, "objects");
     public static final File blobs = join(OBJECT_DIR, "blobs");
     public static final File commits = join(OBJECT_DIR, "commits");
+    public static final File trees = join(OBJECT_DIR, "trees");
+    public static final File chunks = join(OBJECT_DIR, "chunks");
+    public static final File packs = join(OBJECT_DIR, "pack");
     public static final File REFS_DIR = join (GITLET_DIR, "refs");
     public static final File heads = join(REFS_DIR, "heads");
     public static final File remotes = join(REFS_DIR, "remotes");
     public static final File HEAD= join(GITLET_DIR, "HEAD");
+    /** Tips of the branches packed by gc. */
+    public static final File PACKED_REFS = join(GITLET_DIR, "packed-refs");
+    /** Reflogs of HEAD and the branches. */
+    public static final File LOGS_DIR = join(GITLET_DIR, "logs");
     public static final File STAGES_FILE = join(GITLET_DIR, "stages");
+    /** The socket a running gitlet daemon listens on. */
+    public static final File DAEMON_SOCKET = join(GITLET_DIR, "daemon.sock");
+    /** Sorted index of every commit id, for resolving abbreviated ids. */
+    public static final File COMMIT_INDEX = join(OBJECT_DIR, "commit-index");
+    /** Parents, generation numbers and times of all commits, for history walks. */
+    public static final File COMMIT_GRAPH = join(OBJECT_DIR, "commit-graph");
+    /** Marks that the loose objects are in the fan-out layout. */
+    public static final File FANOUT_FILE = join(OBJECT_DIR, "fanout");
+    /** Messages and headers of all commits, for find and global-log. */
+    public static final File MESSAGE_INDEX = join(OBJECT_DIR, "message-index");
+    /** Sorted table of the message hashes in the message index, for find. */
+    public static final File MESSAGE_HASHES = join(OBJECT_DIR, "message-hashes");
+    /** Marks that every commit is in the binary format, with its files in a tree. */
+    public static final File BINARY_COMMITS_FILE = join(OBJECT_DIR, "binary-commits");
+    /** Files being written, before they are renamed into place, see Durable. */
+    public static final File TMP_DIR = join(GITLET_DIR, "tmp");
+    /** Locked by every command, see RepoLock. */
+    public static final File LOCK_FILE = join(GITLET_DIR, "lock");
 
 
     /**set up the gitlet structure, based on design and real git structure*/
     public static void setUp() throws IOException{
-        if (!GITLET_DIR.exists()) {
-            GITLET_DIR.mkdir();
-            OBJECT_DIR.mkdir();
-            blobs.mkdir();
-            commits.mkdir();
-            REFS_DIR.mkdir();
-            heads.mkdir();
-            remotes.mkdir();
-            HEAD.createNewFile();
-            STAGES_FILE.createNewFile();
+        GITLET_DIR.mkdir();
+        OBJECT_DIR.mkdir();
+        blobs.mkdir();
+        commits.mkdir();
+        trees.mkdir();
+        chunks.mkdir();
+        packs.mkdir();
+        REFS_DIR.mkdir();
+        heads.mkdir();
+        remotes.mkdir();
+        HEAD.createNewFile();
+        STAGES_FILE.createNewFile();
+        FANOUT_FILE.createNewFile();
+        BINARY_COMMITS_FILE.createNewFile();
+    }
+
+    /** Return the file of the loose object with the given sha1 under DIR, which is blobs or
+     * commits. The first two hex digits name a subdirectory, so no directory grows too large. */
+    public static File objectFile(File dir, String id) {
+        return join(dir, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Like objectFile, but also creates the subdirectory, for writing a new object. */
+    public static File newObjectFile(File dir, String id) {
+        File file = objectFile(dir, id);
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    /** Return true if the loose object with the given sha1 exists under DIR, with a single stat.
+     * An empty file is one a power loss took the contents of before they were synced, it is
+     * written again. */
+    public static boolean hasObject(File dir, String id) {
+        return id.length() == UID_LENGTH && objectFile(dir, id).length() > 0;
+    }
+
+    /** Return the sha1 of every loose object under DIR, in sorted order. */
+    public static List<String> objectIDs(File dir) {
+        List<String> ids = new ArrayList<>();
+        String[] fans = dir.list();
+        if (fans == null) {
+            return ids;
+        }
+        Arrays.sort(fans);
+        for (String fan : fans) {
+            List<String> rest = plainFilenamesIn(join(dir, fan));
+            if (rest != null) {
+                for (String name : rest) {
+                    ids.add(fan + name);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Return true if the repository needs none of the migrations below. */
+    public static boolean isUpToDate() {
+        return FANOUT_FILE.exists() && BINARY_COMMITS_FILE.exists() && COMMIT_INDEX.exists()
+            && CommitGraph.isCurrent() && MessageIndex.isCurrent();
+    }
+
+    /** Move the loose objects of a repository made before the fan-out layout, which sit directly
+     * under blobs and commits, into their subdirectories. Only runs once. */
+
+    public static void migrateFanOut() throws IOException {
+        if (FANOUT_FILE.exists()) {
+            return;
+        }
+        for (File dir : new File[] {blobs, commits}) {
+            List<String> ids = plainFilenamesIn(dir);
+            if (ids == null) {
+                continue;
+            }
+            for (String id : ids) {
+                Files.move(join(dir, id).toPath(), newObjectFile(dir, id).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        FANOUT_FILE.createNewFile();
+    }
+
+    /** Return the sha1 of every commit, loose or packed, in sorted order. */
+    public static List<String> commitIDs() {
+        Set<String> ids = new TreeSet<>(objectIDs(commits));
+        ids.addAll(Pack.ids(Pack.COMMIT));
+        return new ArrayList<>(ids);
+    }
+
+    /** Return the path of every file in the working directory and its subdirectories, with "/"
+     * between directories, in sorted order. The .gitlet directory is skipped. */
+    public static List<String> workingFiles() {
+        return workingFiles(CWD, "");
+    }
+
+    /** Return the path of every file under DIR, a directory of the working directory whose
+     * path is PREFIX, in sorted order. */
+    public static List<String> workingFiles(File dir, String prefix) {
+        List<String> files = new ArrayList<>();
+        listFiles(dir, prefix, files);
+        files.sort(null);
+        return files;
+    }
 
+    /** Return PATH, a path given on the command line, as a path from the repository root with
+     * "/" between names, no "." or ".." names and no repeated slashes, "" for the root itself.
+     * Returns null if PATH is outside the working directory, or inside .gitlet. */
+    public static String normalizePath(String path) {
+        Path root = CWD.toPath().toAbsolutePath().normalize();
+        Path full = root.resolve(path).normalize();
+        if (!full.startsWith(root) || full.startsWith(root.resolve(GITLET_DIR.getName()))) {
+            return null;
+        }
+        return root.relativize(full).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Add the path of every file under DIR to FILES, each starting with PREFIX. */
+    private static void listFiles(File dir, String prefix, List<String> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isFile()) {
+                files.add(path);
+            } else if (child.isDirectory() && !child.equals(GITLET_DIR)) {
+                listFiles(child, path + "/", files);
+            }
+        }
+    }
+
+    /** Rewrite the commits of a repository made before the binary commit format in that format,
+     * so reading any commit reads only its header and never its files. A commit's id does not
+     * depend on its format, so it keeps its id. The rewritten commit is loose, and found before
+     * the old one if that is packed, until gc packs the new one in its place. */
+    public static void migrateCommitFormat() throws IOException {
+        if (BINARY_COMMITS_FILE.exists()) {
+            return;
+        }
+        for (String id : commitIDs()) {
+            Commit.upgrade(id);
+        }
+        BINARY_COMMITS_FILE.createNewFile();
+    }
+
+    /** Build the commit index of a repository made before there was one. */
+    public static void migrateCommitIndex() {
+        if (COMMIT_INDEX.exists()) {
+            return;
+        }
+        CommitIndex.rebuild(commitIDs());
+    }
+
+    /** Build the message index of a repository made before there was one, or rebuild one saved
+     * in an older format. */
+    public static void migrateMessageIndex() {
+        if (MessageIndex.isCurrent()) {
+            return;
+        }
+        Map<String, Commit> byId = new HashMap<>();
+        for (String id : commitIDs()) {
+            byId.put(id, Commit.read(id));
+        }
+        //older commits may share a second, so a parent is put before its child by depth
+        Map<String, Integer> depths = new HashMap<>();
+        List<Commit> all = new ArrayList<>(byId.values());
+        for (Commit commit : all) {
+            depth(commit.getSha1(), byId, depths);
+        }
+        all.sort(Comparator.comparingLong(Commit::getTime)
+            .thenComparing(commit -> depths.get(commit.getSha1())));
+        MessageIndex.rebuild(all);
+    }
+
+    /** Return the length of the longest chain of parents from the commit ID in COMMITS,
+     *  remembering it and those of its ancestors in DEPTHS. */
+    private static int depth(String id, Map<String, Commit> commits,
+                             Map<String, Integer> depths) {
+        //walk without recursion, the history can be longer than the stack is deep
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(id);
+        while (!pending.isEmpty()) {
+            Commit commit = commits.get(pending.peek());
+            int depth = 0;
+            boolean ready = true;
+            for (String parent : new String[] {commit.getParent(), commit.getSecond_parent()}) {
+                if (parent.isEmpty() || !commits.containsKey(parent)) {
+                    continue;
+                }
+                Integer known = depths.get(parent);
+                if (known == null) {
+                    pending.push(parent);
+                    ready = false;
+                } else {
+                    depth = Math.max(depth, known + 1);
+                }
+            }
+            if (ready) {
+                depths.put(pending.pop(), depth);
+            }
+        }
+        return depths.get(id);
+    }
+
+    /** Build the commit graph of a repository made before there was one, or rebuild one saved
+     * in an older format. */
+    public static void migrateCommitGraph() {
+        if (CommitGraph.isCurrent()) {
+            return;
+        }
+        Map<String, Commit> all = new HashMap<>();
+        for (String id : commitIDs()) {
+            all.put(id, Commit.read(id));
         }
+        CommitGraph.rebuild(all);
     }
 
 }
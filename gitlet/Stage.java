@@ -1,19 +1,157 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class Stage implements Serializable {
+
+    /** Same as the implicit UID of stages saved before the stat cache, so they can still be read. */
+    private static final long serialVersionUID = -1031130635967723552L;
+
+    /** First int of a stage in the binary format, "GS" and the format version. Stages saved
+     * before it are Java serialized. */
+    private static final int MAGIC = 0x47530001;
+
     /** A stage area for commit command, it has add stage area and remove stage area.*/
     private Map<String, String> addStage = new HashMap<>();
 
     /** The stage area for remove, will figure out the data structure later.*/
     private List<String> removeStage = new ArrayList<>();
 
+    /** Stat data of files in the working directory, as of the last time each one was hashed, key
+     * is the file name. A file whose stat data still matches is not read and hashed again. */
+    private Map<String, StatEntry> statCache = new HashMap<>();
+
+    /** Last modified time of the stage file when it was read, in nanoseconds. A file modified at
+     * or after that time may have changed again within the same clock tick after it was hashed,
+     * so its entry is not trusted (it is racily clean). */
+    private transient long indexTime = Long.MAX_VALUE;
+
+    /** True if the stat cache changed since the stage was read. */
+    private transient boolean statChanged;
+
+    /** Size of the stage file when it was read. */
+    private transient long indexSize = -1;
+
+    /** Size, modification time and file key (the inode on Unix) of a file, and its blob id. */
+    private static class StatEntry {
+        private final long size;
+        private final long mtime;
+        private final String fileKey;
+        private final String blobID;
+
+        StatEntry(BasicFileAttributes attrs, String blobID) {
+            this(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                String.valueOf(attrs.fileKey()), blobID);
+        }
+
+        StatEntry(long size, long mtime, String fileKey, String blobID) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+            this.blobID = blobID;
+        }
+
+        /** Return true if ATTRS are the stat data this entry recorded. */
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                && mtime == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                && fileKey.equals(String.valueOf(attrs.fileKey()));
+        }
+    }
+
+    /** Read the stage from the stages file. */
+    public static Stage read() {
+        byte[] bytes = Utils.readContents(Repository.STAGES_FILE);
+        Stage stage = Utils.isSerialized(bytes) ? Utils.deserialize(bytes, Stage.class)
+            : decode(bytes);
+        try {
+            stage.indexTime = Files.getLastModifiedTime(Repository.STAGES_FILE.toPath())
+                .to(TimeUnit.NANOSECONDS);
+            stage.indexSize = bytes.length;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (stage.statCache == null) {
+            stage.statCache = new HashMap<>();
+        }
+        return stage;
+    }
+
+    /** Return the blob id of FILENAME in the working directory. It comes from the stat cache when
+     * the file's size, modification time and file key are unchanged and the entry is not racily
+     * clean, otherwise the file is hashed and the cache updated. */
+    public String blobID(String filename) throws IOException {
+        return blobIDs(List.of(filename)).get(0);
+    }
+
+    /** Return the blob ids of FILENAMES in the working directory, in the same order, as blobID
+     * would. The files are stat'ed and hashed in parallel. */
+    public List<String> blobIDs(List<String> filenames) throws IOException {
+        List<StatEntry> entries = ParallelScan.map(filenames, this::refresh);
+        List<String> ids = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            StatEntry entry = entries.get(i);
+            if (statCache.put(filenames.get(i), entry) != entry) {
+                statChanged = true;
+            }
+            ids.add(entry.blobID);
+        }
+        return ids;
+    }
+
+    /** Return the stat cache entry of FILENAME if it is still good, or else a new entry made by
+     * hashing the file. Only reads the cache, so many files may be refreshed at once. */
+    private StatEntry refresh(String filename) throws IOException {
+        File file = Utils.join(Repository.CWD, filename);
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        StatEntry cached = statCache.get(filename);
+        if (cached != null && cached.matches(attrs) && cached.mtime < indexTime) {
+            return cached;
+        }
+        return new StatEntry(attrs, new Blob(file).getHash());
+    }
+
+    /** Drop the stat cache entries of files that are not in FILES, the files now in the working
+     * directory. */
+    public void pruneStatCache(Collection<String> files) {
+        if (statCache.keySet().retainAll(files)) {
+            statChanged = true;
+        }
+    }
+
+    /** Save the stage if the stat cache changed, so the next command can use the new entries.
+     *  status and diff call this holding the repository lock only shared, so the stage is saved
+     *  only if the lock can be made exclusive without waiting, and the stage file is still the
+     *  one that was read, since another command may have changed it in between. Otherwise the
+     *  new entries are dropped, and a later command hashes those files again. */
+    public void saveIfStatChanged() throws IOException {
+        if (statChanged && RepoLock.tryExclusive() && isCurrent()) {
+            save();
+        }
+    }
+
+    /** Return true if the stages file has the modification time and size it had when this
+     *  stage was read. */
+    private boolean isCurrent() throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(Repository.STAGES_FILE.toPath(),
+            BasicFileAttributes.class);
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) == indexTime
+            && attrs.size() == indexSize;
+    }
+
 
     /** Add the blob into stage for addition area, key is the blob's filename, usually same
      * as the file name in CWD, value is blob's sha1 hash code. */
@@ -45,7 +183,8 @@ public class Stage implements Serializable {
         return removeStage;
     }
 
-    /** After the commit, the stage for addition area should be cleared. */
+    /** After the commit, the stage for addition area should be cleared. The stat cache is kept,
+     * it describes the working directory, not the stage. */
     public void clear() {
         addStage.clear();
         removeStage.clear();
@@ -57,9 +196,64 @@ public class Stage implements Serializable {
         addStage.remove(filename);
     }
 
-    /** Save the stage. */
+    /** Save the stage, once the blobs it names are on the disk, see Durable. */
     public void save() {
-        Utils.writeObject(Repository.STAGES_FILE, this);
+        Durable.replace(Repository.STAGES_FILE, encode());
+    }
+
+    /** Return the stage in the binary format: the magic number, then the files staged for
+     * addition with their blob ids, the files staged for removal and the stat cache entries,
+     * each list after its length. Strings are UTF-8 after their length, ids are their raw
+     * bytes. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(addStage.size());
+            for (Map.Entry<String, String> entry : addStage.entrySet()) {
+                Utils.writeString(out, entry.getKey());
+                out.write(Utils.hexToBytes(entry.getValue()));
+            }
+            out.writeInt(removeStage.size());
+            for (String filename : removeStage) {
+                Utils.writeString(out, filename);
+            }
+            out.writeInt(statCache.size());
+            for (Map.Entry<String, StatEntry> entry : statCache.entrySet()) {
+                StatEntry stat = entry.getValue();
+                Utils.writeString(out, entry.getKey());
+                out.writeLong(stat.size);
+                out.writeLong(stat.mtime);
+                Utils.writeString(out, stat.fileKey);
+                out.write(Utils.hexToBytes(stat.blobID));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the stage whose binary format is BYTES. */
+    private static Stage decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Bad stage");
+        }
+        Stage stage = new Stage();
+        for (int n = in.getInt(); n > 0; n--) {
+            stage.addStage.put(Utils.readString(in), Utils.readID(in));
+        }
+        for (int n = in.getInt(); n > 0; n--) {
+            stage.removeStage.add(Utils.readString(in));
+        }
+        for (int n = in.getInt(); n > 0; n--) {
+            String filename = Utils.readString(in);
+            long size = in.getLong();
+            long mtime = in.getLong();
+            String fileKey = Utils.readString(in);
+            stage.statCache.put(filename, new StatEntry(size, mtime, fileKey, Utils.readID(in)));
+        }
+        return stage;
     }
 
 }
@@ -0,0 +1,218 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** A tree object: the files and subdirectories of one directory. Each name maps to the id of a
+ *  blob, or, for a name ending in "/", to the id of the subdirectory's tree. Trees are named by
+ *  the sha1 of their bytes, so a directory with no changes keeps its tree id and every commit
+ *  that has it shares the one object. A commit points at the tree of the working directory.
+ *  Loose trees are under objects/trees, fanned out like the other objects.
+ *  The bytes of a tree are the magic number, the entry count, and each entry as its name in
+ *  modified UTF-8 and the binary id, in name order.
+ *  @author Susie
+ */
+class Tree {
+
+    /** First int of a tree, "GTR1". */
+    private static final int MAGIC = 0x47545231;
+
+    /** Trees recently read or written. */
+    private static final LruCache<String, Tree> CACHE = new LruCache<>(4096);
+
+    /** The entries, by name. */
+    private final SortedMap<String, String> entries;
+
+    /** The number of files in the tree and its subtrees, or -1 until it is counted. */
+    private int fileCount = -1;
+
+    private Tree(SortedMap<String, String> entries) {
+        this.entries = Collections.unmodifiableSortedMap(entries);
+    }
+
+    /** Return the cache of trees read or written by this process. */
+    static LruCache<String, Tree> cache() {
+        return CACHE;
+    }
+
+    /** Return the entries of the tree with the given sha1, a subdirectory's name ending in "/". */
+    static SortedMap<String, String> entries(String id) {
+        return read(id).entries;
+    }
+
+    /** Return the tree that results from applying CHANGES to the tree ID, or to an empty tree if
+     *  ID is null. CHANGES maps paths relative to the tree, with "/" between directories, to
+     *  their new blob ids, or to null for a file that is gone. Only the trees of directories with
+     *  a change are read and written again, the others keep their ids. */
+    static String update(String id, SortedMap<String, String> changes) {
+        String result = updateDir(id, changes);
+        return result != null ? result : write(new TreeMap<>());
+    }
+
+    /** Return the blob id of PATH in the tree ID, or null if it has no such file. Only the
+     *  trees of the directories on the path are read. */
+    static String lookup(String id, String path) {
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            id = entries(id).get(path.substring(start, slash + 1));
+            if (id == null) {
+                return null;
+            }
+            start = slash + 1;
+        }
+        return entries(id).get(path.substring(start));
+    }
+
+    /** Add to CHANGES the files that differ between the trees OLDID and NEWID, either null for
+     *  an empty tree, in path order, each path starting with PREFIX. The two trees' entries are
+     *  walked together, and a subdirectory with the same tree id in both is skipped unread. */
+    static void changes(String oldId, String newId, String prefix, List<Diff.Change> changes) {
+        if (Objects.equals(oldId, newId)) {
+            return;
+        }
+        Iterator<Map.Entry<String, String>> olds = oldId == null
+            ? Collections.emptyIterator() : entries(oldId).entrySet().iterator();
+        Iterator<Map.Entry<String, String>> news = newId == null
+            ? Collections.emptyIterator() : entries(newId).entrySet().iterator();
+        Map.Entry<String, String> o = olds.hasNext() ? olds.next() : null;
+        Map.Entry<String, String> n = news.hasNext() ? news.next() : null;
+        while (o != null || n != null) {
+            int cmp = o == null ? 1 : n == null ? -1 : o.getKey().compareTo(n.getKey());
+            String name = cmp <= 0 ? o.getKey() : n.getKey();
+            String oldEntry = cmp <= 0 ? o.getValue() : null;
+            String newEntry = cmp >= 0 ? n.getValue() : null;
+            if (name.endsWith("/")) {
+                changes(oldEntry, newEntry, prefix + name, changes);
+            } else if (!Objects.equals(oldEntry, newEntry)) {
+                changes.add(new Diff.Change(prefix + name, oldEntry, newEntry));
+            }
+            if (cmp <= 0) {
+                o = olds.hasNext() ? olds.next() : null;
+            }
+            if (cmp >= 0) {
+                n = news.hasNext() ? news.next() : null;
+            }
+        }
+    }
+
+    /** Return the number of files in the tree ID and its subtrees. */
+    static int fileCount(String id) {
+        Tree tree = read(id);
+        if (tree.fileCount < 0) {
+            int count = 0;
+            for (Map.Entry<String, String> entry : tree.entries.entrySet()) {
+                count += entry.getKey().endsWith("/") ? fileCount(entry.getValue()) : 1;
+            }
+            tree.fileCount = count;
+        }
+        return tree.fileCount;
+    }
+
+    /** Like update, but returns null when the directory ends up empty, so it is dropped from
+     *  its parent. */
+    private static String updateDir(String id, SortedMap<String, String> changes) {
+        TreeMap<String, String> entries = id == null ? new TreeMap<>() : new TreeMap<>(entries(id));
+        //changes below a subdirectory, by the subdirectory's entry name
+        Map<String, SortedMap<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash + 1), k -> new TreeMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, SortedMap<String, String>> subdir : subdirs.entrySet()) {
+            String child = updateDir(entries.get(subdir.getKey()), subdir.getValue());
+            if (child == null) {
+                entries.remove(subdir.getKey());
+            } else {
+                entries.put(subdir.getKey(), child);
+            }
+        }
+        return entries.isEmpty() ? null : write(entries);
+    }
+
+    /** Save the tree with the given ENTRIES unless it is already saved, and return its id. */
+    private static String write(SortedMap<String, String> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(hexToBytes(entry.getValue()));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] contents = bytes.toByteArray();
+        String id = sha1(contents);
+        if (!Repository.hasObject(Repository.trees, id) && !Pack.contains(id)) {
+            Durable.write(Repository.newObjectFile(Repository.trees, id), contents);
+        }
+        CACHE.put(id, new Tree(new TreeMap<>(entries)));
+        return id;
+    }
+
+    /** Return the tree with the given sha1, from the cache, its loose file or the packs. */
+    private static Tree read(String id) {
+        Tree tree = CACHE.get(id);
+        if (tree == null) {
+            tree = decode(readBytes(id));
+            CACHE.put(id, tree);
+        }
+        return tree;
+    }
+
+    /** Return the bytes of the tree with the given sha1, from its loose file or the packs. */
+    static byte[] readBytes(String id) {
+        File loose = Repository.objectFile(Repository.trees, id);
+        if (loose.exists()) {
+            return readContents(loose);
+        }
+        byte[] packed = Pack.read(id);
+        if (packed == null) {
+            throw new IllegalArgumentException("No tree " + id);
+        }
+        return packed;
+    }
+
+    /** Return the tree whose bytes are CONTENTS. */
+    private static Tree decode(byte[] contents) {
+        TreeMap<String, String> entries = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Bad tree");
+            }
+            int count = in.readInt();
+            byte[] id = new byte[ID_SIZE];
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                in.readFully(id);
+                entries.put(name, bytesToHex(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new Tree(entries);
+    }
+}
@@ -1,7 +1,9 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
@@ -9,6 +11,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
@@ -63,6 +66,68 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** The length of a SHA-1 UID in bytes. */
+    static final int ID_SIZE = UID_LENGTH / 2;
+
+    /** Returns the ID_SIZE bytes of the hexadecimal UID ID, or null if ID
+     *  is not a complete UID. */
+    static byte[] hexToBytes(String id) {
+        if (id.length() != UID_LENGTH) {
+            return null;
+        }
+        byte[] result = new byte[ID_SIZE];
+        for (int i = 0; i < ID_SIZE; i++) {
+            int hi = Character.digit(id.charAt(2 * i), 16);
+            int lo = Character.digit(id.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            result[i] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal UID made of the first ID_SIZE bytes of ID. */
+    static String bytesToHex(byte[] id) {
+        StringBuilder result = new StringBuilder(UID_LENGTH);
+        for (int i = 0; i < ID_SIZE; i++) {
+            result.append(Character.forDigit((id[i] >> 4) & 0xf, 16));
+            result.append(Character.forDigit(id[i] & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** Returns true if BYTES are a Java serialization stream, the format
+     *  commits and stages were saved in before they had their own. */
+    static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xff) == 0xAC
+            && (bytes[1] & 0xff) == 0xED;
+    }
+
+    /** Writes S to OUT as the length of its UTF-8 bytes and then the
+     *  bytes. */
+    static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns the string written by writeString at the position of IN. */
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the hexadecimal UID of the ID_SIZE bytes at the position of
+     *  IN. */
+    static String readID(ByteBuffer in) {
+        byte[] id = new byte[ID_SIZE];
+        in.get(id);
+        return bytesToHex(id);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -220,6 +285,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from the serialized BYTES, casting it
+     *  to EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -230,6 +311,16 @@ class Utils {
         return new GitletException(String.format(msg, args));
     }
 
+    /** Ends the current command with exit code CODE.  Outside the daemon
+     *  this is System.exit, inside it ends only the command, by throwing
+     *  Daemon.Exit. */
+    static void exit(int code) {
+        if (Daemon.serving()) {
+            throw new Daemon.Exit(code);
+        }
+        System.exit(code);
+    }
+
     /** Print a message composed from MSG and ARGS as for the String.format
      *  method, followed by a newline. */
     static void message(String msg, Object... args) {
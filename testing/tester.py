@@ -3,7 +3,7 @@ from subprocess import \
      check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext
 from getopt import getopt, GetoptError
-from os import chdir, environ, getcwd, mkdir, remove, access, W_OK
+from os import chdir, environ, getcwd, makedirs, mkdir, remove, access, W_OK
 from shutil import copyfile, rmtree
 from math import log
 
@@ -47,8 +47,12 @@ The instructions each have one of the following forms:
           intended to let you set up remote repositories.
    T N    Set the timeout for gitlet commands in the rest of this test to N
           seconds.
+   V NAME VALUE
+          Set the environment variable NAME to VALUE for the gitlet commands
+          in the rest of this test.
    + NAME F
-          Copy the contents of src/F into a file named NAME.
+          Copy the contents of src/F into a file named NAME, making the
+          directories above NAME if they are missing.
    - NAME
           Delete the file named NAME.
    > COMMAND OPERANDS
@@ -152,6 +156,7 @@ def doDelete(name, dir):
 def doCopy(dest, src, dir):
     try:
         doDelete(dest, dir)
+        makedirs(dirname(join(dir, dest)), exist_ok=True)
         copyfile(join(src_dir, src), join(dir, dest))
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
@@ -281,6 +286,7 @@ def doTest(test):
 
     timeout = TIMEOUT
     defns = {}
+    saved_environ = dict(environ)
 
     def do_substs(L):
         c = 0
@@ -334,6 +340,8 @@ def doTest(test):
                     timeout = float(Group(1))
                 except:
                     ValueError("bad time: {}".format(line))
+            elif Match(r'V\s*([a-zA-Z_][a-zA-Z_0-9]*)\s+(\S+)', line):
+                environ[Group(1)] = Group(2)
             elif Match(r'\+\s*(\S+)\s+(\S+)', line):
                 doCopy(Group(1), Group(2), cdir)
             elif Match(r'-\s*(\S+)', line):
@@ -385,6 +393,8 @@ def doTest(test):
             else:
                 raise ValueError("bad test line at {}".format(line_num))
     finally:
+        environ.clear()
+        environ.update(saved_environ)
         if not keep:
             cleanTempDir(tmpdir)
 